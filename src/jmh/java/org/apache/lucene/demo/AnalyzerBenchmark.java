@@ -0,0 +1,91 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.StopwordAnalyzerBase;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.snowball.SnowballFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token throughput of {@link SpanishAnalyzer2}, in input words per second,
+ * against the filter chain it replaces. SpanishAnalyzer2Test checks that both
+ * produce the same tokens.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzerBenchmark {
+
+    private static final int WORDS = 1000;
+
+    @Param({ "fused", "chain" })
+    public String analysis;
+
+    private Analyzer analyzer;
+    private String text;
+
+    @Setup
+    public void setup() throws IOException {
+        analyzer = "fused".equals(analysis) ? new SpanishAnalyzer2() : new ChainAnalyzer();
+        text = new SyntheticCorpus(42).text(WORDS) + " De LA el Ñandú ÁRBOL y";
+    }
+
+    @TearDown
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public int analyze() throws IOException {
+        int length = 0;
+        try (TokenStream ts = analyzer.tokenStream("description", text)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                length += term.length();
+            }
+            ts.end();
+        }
+        return length;
+    }
+
+    /** The filter chain {@link SpanishAnalyzer2} used before {@link SpanishAnalysisFilter}. */
+    static final class ChainAnalyzer extends StopwordAnalyzerBase {
+        ChainAnalyzer() {
+            super(SpanishAnalyzer2.getDefaultStopSet());
+        }
+
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer source = new StandardTokenizer();
+            TokenStream result = new LowerCaseFilter(source);
+            result = new StopFilter(result, stopwords);
+            result = new SnowballFilter(result, "Spanish");
+            return new TokenStreamComponents(source, result);
+        }
+    }
+}
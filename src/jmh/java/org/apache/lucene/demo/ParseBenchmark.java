@@ -0,0 +1,72 @@
+package org.apache.lucene.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of {@link IndexFiles#parseXMLDoc}, for a file holding a
+ * single record and for a file holding many of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    private Path dir;
+    private File singleRecord;
+    private File listRecords;
+    private DublinCoreParser parser;
+    private long fields;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("parse-bench");
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        singleRecord = dir.resolve("record.xml").toFile();
+        corpus.writeRecordFile(singleRecord.toPath());
+        listRecords = dir.resolve("list.xml").toFile();
+        corpus.writeListRecordsFile(listRecords.toPath(), RECORDS);
+        parser = new DublinCoreParser();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(singleRecord.toPath());
+        Files.deleteIfExists(listRecords.toPath());
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public long singleRecordFile() throws IOException {
+        IndexFiles.parseXMLDoc(singleRecord, null, parser, (doc, recordIndex) -> fields += doc.getFields().size());
+        return fields;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long listRecordsFile() throws IOException {
+        IndexFiles.parseXMLDoc(listRecords, null, parser, (doc, recordIndex) -> fields += doc.getFields().size());
+        return fields;
+    }
+}
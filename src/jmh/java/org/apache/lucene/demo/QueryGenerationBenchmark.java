@@ -0,0 +1,50 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link SearchFiles#generateQueryFromInfoNeed(String)} over the
+ * information needs of {@code necesidadesInformacion.xml}. One operation
+ * builds the query of every need; the models are already loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryGenerationBenchmark {
+
+    private List<String> needs;
+
+    @Setup
+    public void setup() throws Exception {
+        needs = new ArrayList<>(SearchFiles.readInfoNeeds("necesidadesInformacion.xml").values());
+        // load the models outside of the measurement
+        SearchFiles.generateQueryFromInfoNeed(needs.get(0));
+    }
+
+    @Benchmark
+    public int generateQueries() throws Exception {
+        int clauses = 0;
+        for (String need : needs) {
+            Query query = SearchFiles.generateQueryFromInfoNeed(need);
+            clauses += query.hashCode();
+        }
+        return clauses;
+    }
+}
@@ -0,0 +1,117 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares two ways of rendering the result pages of the queries of
+ * {@code consultas.txt}: loading the stored document of every hit, as
+ * {@link SearchFiles} used to, or reading the paths column-wise from doc
+ * values with {@link HitPaths}. One operation renders the page of every
+ * query; the searches are done in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({ "5000" })
+    public int records;
+
+    @Param({ "10", "100", "1000" })
+    public int pageSize;
+
+    private Path corpus;
+    private Directory dir;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private List<ScoreDoc[]> pages;
+
+    @Setup
+    public void setup() throws Exception {
+        corpus = Files.createTempDirectory("render-bench");
+        new SyntheticCorpus(42).writeCorpus(corpus, records);
+
+        Analyzer analyzer = new SpanishAnalyzer2();
+        dir = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(analyzer))) {
+            IndexFiles.indexDocs(writer, corpus.toFile());
+        }
+        reader = DirectoryReader.open(dir);
+        searcher = new IndexSearcher(reader);
+
+        QueryParser parser = new DublinCoreQueryParser(SearchFiles.fields, analyzer);
+        pages = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get("consultas.txt"), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                pages.add(searcher.search(parser.parse(line.trim()), pageSize).scoreDocs);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        dir.close();
+        try (Stream<Path> files = Files.walk(corpus)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public long stored() throws IOException {
+        long length = 0;
+        for (ScoreDoc[] hits : pages) {
+            for (ScoreDoc hit : hits) {
+                length += searcher.doc(hit.doc).get("path").length();
+            }
+        }
+        return length;
+    }
+
+    @Benchmark
+    public long docValues() throws IOException {
+        long length = 0;
+        for (ScoreDoc[] hits : pages) {
+            for (String path : HitPaths.resolve(reader, hits, 0, hits.length)) {
+                length += path != null ? path.length() : 0;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,110 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency of the queries of {@code consultas.txt} over an in-memory index of a
+ * synthetic corpus. One operation runs every query and writes all its hits,
+ * like {@code SearchFiles -queries consultas.txt}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({ "5000" })
+    public int records;
+
+    private Path corpus;
+    private Directory dir;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private List<Query> queries;
+
+    @Setup
+    public void setup() throws Exception {
+        corpus = Files.createTempDirectory("search-bench");
+        new SyntheticCorpus(42).writeCorpus(corpus, records);
+
+        Analyzer analyzer = new SpanishAnalyzer2();
+        dir = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(analyzer))) {
+            IndexFiles.indexDocs(writer, corpus.toFile());
+        }
+        reader = DirectoryReader.open(dir);
+        searcher = new IndexSearcher(reader);
+
+        QueryParser parser = new DublinCoreQueryParser(SearchFiles.fields, analyzer);
+        queries = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get("consultas.txt"), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                queries.add(parser.parse(line.trim()));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        dir.close();
+        try (Stream<Path> files = Files.walk(corpus)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public int fullSearch() throws IOException {
+        int total = 0;
+        Writer out = Writer.nullWriter();
+        for (int i = 0; i < queries.size(); i++) {
+            total += SearchFiles.fullSearch(out, searcher, queries.get(i), Integer.toString(i + 1), 0);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int top10() throws IOException {
+        int total = 0;
+        for (Query query : queries) {
+            total += searcher.search(query, 10).scoreDocs.length;
+        }
+        return total;
+    }
+}
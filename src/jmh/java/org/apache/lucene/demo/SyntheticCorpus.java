@@ -0,0 +1,137 @@
+package org.apache.lucene.demo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Deterministic generator of Dublin Core records for the benchmarks.
+ * <p>
+ * The vocabulary, creators, publishers, types and years are chosen so that the
+ * queries of {@code consultas.txt} and {@code necesidadesInformacion.xml} have
+ * matches.
+ */
+final class SyntheticCorpus {
+
+    static final String[] WORDS = {
+            "robótica", "informática", "gráfica", "fauna", "flora", "animales", "felino", "calor", "frío",
+            "cambio", "climático", "contracción", "muscular", "caciquismo", "dictadura", "represión", "política",
+            "huesca", "españa", "bioinformática", "filogenética", "biología", "computacional", "alzheimer",
+            "parkinson", "enfermedades", "neurodegenerativas", "diagnóstico", "economía", "crisis", "partidos",
+            "gobierno", "sociedad", "estudio", "análisis", "sistema", "modelo", "datos", "desarrollo", "diseño",
+            "evaluación", "aplicación", "energía", "agua", "suelo", "historia", "siglo", "trabajo", "proyecto",
+            "hardware", "software", "red", "control", "imagen", "sonido", "salud", "paciente", "tratamiento" };
+
+    static final String[] CREATORS = { "García, Julia", "López, Rubén", "Martín, Ana", "Pérez, Luis",
+            "Sánchez, Elena", "Gómez, Pablo" };
+
+    static final String[] PUBLISHERS = { "Universidad de Zaragoza, Ingeniería Informática",
+            "Universidad de Zaragoza, Biología", "Universidad de Zaragoza, Fisioterapia",
+            "Universidad de Zaragoza, Departamento de Historia Moderna y Contemporánea",
+            "Universidad de Zaragoza, Ingeniería Electrónica y Comunicaciones" };
+
+    static final String[] TYPES = { "TAZ-TFG", "TAZ-TFM", "TESIS" };
+
+    private final Random random;
+
+    /**
+     * @param seed Seed of the generator, the same seed gives the same records
+     */
+    SyntheticCorpus(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param words Number of words
+     * @return Random text of the given length
+     */
+    String text(int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(i % 12 == 0 ? ". " : " ");
+            }
+            sb.append(pick(WORDS));
+            if (i % 5 == 0) {
+                // some stopwords, like in real descriptions
+                sb.append(" de la");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes one record, without the XML declaration or wrapper element.
+     *
+     * @param out Destination of the record
+     * @throws IOException If the record can't be written
+     */
+    void writeFields(Writer out) throws IOException {
+        out.write("<dc:title>" + text(6) + "</dc:title>\n");
+        out.write("<dc:creator>" + pick(CREATORS) + "</dc:creator>\n");
+        out.write("<dc:contributor>" + pick(CREATORS) + "</dc:contributor>\n");
+        out.write("<dc:subject>" + pick(WORDS) + "</dc:subject>\n");
+        out.write("<dc:subject>" + pick(WORDS) + "</dc:subject>\n");
+        out.write("<dc:description>" + text(120) + "</dc:description>\n");
+        out.write("<dc:publisher>" + pick(PUBLISHERS) + "</dc:publisher>\n");
+        out.write("<dc:date>" + (1995 + random.nextInt(28)) + "</dc:date>\n");
+        out.write("<dc:type>" + pick(TYPES) + "</dc:type>\n");
+        out.write("<dc:language>spa</dc:language>\n");
+    }
+
+    /**
+     * Writes a file holding a single record, like the harvested corpus.
+     *
+     * @param file Destination file
+     * @throws IOException If the file can't be written
+     */
+    void writeRecordFile(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                    + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+            writeFields(out);
+            out.write("</oai_dc:dc>\n");
+        }
+    }
+
+    /**
+     * Writes a file holding many records, like an OAI-PMH ListRecords response.
+     *
+     * @param file    Destination file
+     * @param records Number of records
+     * @throws IOException If the file can't be written
+     */
+    void writeListRecordsFile(Path file, int records) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<OAI-PMH><ListRecords>\n");
+            for (int i = 0; i < records; i++) {
+                out.write("<record><metadata><oai_dc:dc>\n");
+                writeFields(out);
+                out.write("</oai_dc:dc></metadata></record>\n");
+            }
+            out.write("</ListRecords></OAI-PMH>\n");
+        }
+    }
+
+    /**
+     * Writes a directory of single-record files.
+     *
+     * @param dir     Destination directory, created if needed
+     * @param records Number of records
+     * @throws IOException If the files can't be written
+     */
+    void writeCorpus(Path dir, int records) throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 0; i < records; i++) {
+            writeRecordFile(dir.resolve("oai_zaguan.unizar.es_" + i + ".xml"));
+        }
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
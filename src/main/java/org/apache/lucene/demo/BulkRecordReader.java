@@ -0,0 +1,478 @@
+package org.apache.lucene.demo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads records from line-oriented dump files, one record per line, instead
+ * of one XML file per record.
+ * <ul>
+ * <li>{@code .jsonl} / {@code .ndjson}: a flat JSON object per line, e.g.
+ * {@code {"title": "...", "subject": ["a", "b"], "date": "2015"}}. Values are
+ * strings, numbers or arrays of them; nested objects and arrays, and keys
+ * that are not Dublin Core, are skipped.</li>
+ * <li>{@code .tsv}: a header line naming the columns, then tab-separated
+ * values with {@code \t}, {@code \n} and {@code \\} escaped. A column name may
+ * repeat for multi-valued elements. Lucene benchmark line-doc files
+ * ({@code FIELDS_HEADER_INDICATOR###} header, {@code doctitle},
+ * {@code docdate} and {@code body} columns) are read as well.</li>
+ * </ul>
+ * Keys and columns are Dublin Core elements ({@code dc:title}) or field names
+ * ({@code title}), and go through the same mapping as the XML records, see
+ * {@link DublinCoreParser#addValue(String, String)}. The file is read
+ * sequentially through a large buffer; with several threads one thread reads
+ * batches of lines and the others turn them into documents.
+ */
+final class BulkRecordReader {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BATCH_SIZE = 256;
+
+    private static final String LINE_DOC_HEADER = "FIELDS_HEADER_INDICATOR###";
+
+    /** Column names of Lucene line-doc files. */
+    private static final Map<String, String> ALIASES = new HashMap<>();
+
+    static {
+        ALIASES.put("doctitle", "title");
+        ALIASES.put("docdate", "date");
+        ALIASES.put("body", "description");
+    }
+
+    private BulkRecordReader() {
+    }
+
+    /**
+     * @param file A file
+     * @return True if the file holds a record per line, by its extension
+     */
+    static boolean isBulkFile(File file) {
+        return isJson(file) || isTsv(file);
+    }
+
+    /**
+     * Reads every record of the file on the calling thread.
+     *
+     * @param file    The JSONL or TSV file
+     * @param parser  Field mapping, reused between records
+     * @param handler Receiver for the records, indexed by line after the header
+     * @return Number of records found
+     * @throws IOException If the file can't be read or the handler fails
+     */
+    static int read(File file, DublinCoreParser parser, DublinCoreParser.RecordHandler handler)
+            throws IOException {
+        try (BufferedReader in = open(file)) {
+            LineParser lineParser = lineParser(file, in);
+            int records = 0;
+            String line;
+            for (int index = 0; (line = in.readLine()) != null; index++) {
+                if (lineParser.parse(line, index, parser, file)) {
+                    handler.record(parser.finishRecord(), index);
+                    records++;
+                }
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Reads the file on the calling thread and maps its records to documents on
+     * a pool of threads. The handler must be thread-safe.
+     *
+     * @param file    The JSONL or TSV file
+     * @param threads Number of threads building documents
+     * @param handler Receiver for the records, indexed by line after the header
+     * @return Number of records found
+     * @throws IOException          If the file can't be read or the handler fails
+     * @throws InterruptedException If the calling thread is interrupted
+     */
+    static int read(File file, int threads, DublinCoreParser.RecordHandler handler)
+            throws IOException, InterruptedException {
+        if (threads <= 1) {
+            return read(file, new DublinCoreParser(), handler);
+        }
+
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(4 * threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> workers = new ArrayList<>(threads);
+        try (BufferedReader in = open(file)) {
+            LineParser lineParser = lineParser(file, in);
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    DublinCoreParser parser = new DublinCoreParser();
+                    int records = 0;
+                    for (Batch batch = queue.take(); batch != Batch.END; batch = queue.take()) {
+                        for (int j = 0; j < batch.lines.size(); j++) {
+                            int index = batch.firstIndex + j;
+                            if (lineParser.parse(batch.lines.get(j), index, parser, file)) {
+                                handler.record(parser.finishRecord(), index);
+                                records++;
+                            }
+                        }
+                    }
+                    return records;
+                }));
+            }
+
+            Batch batch = new Batch(0);
+            String line;
+            for (int index = 0; (line = in.readLine()) != null; index++) {
+                batch.lines.add(line);
+                if (batch.lines.size() == BATCH_SIZE) {
+                    put(queue, batch, workers);
+                    batch = new Batch(index + 1);
+                }
+            }
+            put(queue, batch, workers);
+            for (int i = 0; i < threads; i++) {
+                put(queue, Batch.END, workers);
+            }
+
+            int records = 0;
+            for (Future<Integer> worker : workers) {
+                records += get(worker);
+            }
+            return records;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Hands a batch to the workers, failing fast if one of them died. */
+    private static void put(BlockingQueue<Batch> queue, Batch batch, List<Future<Integer>> workers)
+            throws IOException, InterruptedException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<Integer> worker : workers) {
+                if (worker.isDone()) {
+                    get(worker);
+                }
+            }
+        }
+    }
+
+    private static int get(Future<Integer> worker) throws IOException, InterruptedException {
+        try {
+            return worker.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+    }
+
+    private static boolean isJson(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jsonl") || name.endsWith(".ndjson");
+    }
+
+    private static boolean isTsv(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".tsv");
+    }
+
+    /** Reads the header of the file if it has one and returns the parser of its lines. */
+    private static LineParser lineParser(File file, BufferedReader in) throws IOException {
+        if (isJson(file)) {
+            return BulkRecordReader::parseJson;
+        }
+        String header = in.readLine();
+        if (header == null) {
+            return (line, index, parser, source) -> false;
+        }
+        String[] columns = header.split("\t", -1);
+        for (int i = 0; i < columns.length; i++) {
+            String column = columns[i].trim();
+            if (i == 0 && column.startsWith(LINE_DOC_HEADER)) {
+                column = column.substring(LINE_DOC_HEADER.length());
+            }
+            columns[i] = ALIASES.getOrDefault(column, column);
+        }
+        return (line, index, parser, source) -> parseTsv(columns, line, parser);
+    }
+
+    /** Fills the parser with the values of one line. */
+    private interface LineParser {
+        /**
+         * @return False if the line holds no record, e.g. it is blank or invalid
+         */
+        boolean parse(String line, int index, DublinCoreParser parser, File source);
+    }
+
+    private static boolean parseTsv(String[] columns, String line, DublinCoreParser parser) {
+        if (line.isEmpty()) {
+            return false;
+        }
+        parser.startRecord();
+        int column = 0;
+        int start = 0;
+        while (column < columns.length && start <= line.length()) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            if (end > start) {
+                parser.addValue(columns[column], unescapeTsv(line, start, end));
+            }
+            column++;
+            start = end + 1;
+        }
+        return true;
+    }
+
+    private static String unescapeTsv(String line, int start, int end) {
+        int slash = line.indexOf('\\', start);
+        if (slash < 0 || slash >= end) {
+            return line.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char next = line.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean parseJson(String line, int index, DublinCoreParser parser, File source) {
+        if (line.trim().isEmpty()) {
+            return false;
+        }
+        parser.startRecord();
+        try {
+            new JsonLine(line, parser).parseObject();
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.err.println(source + ":" + (index + 1) + ": skipping invalid JSON record, " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Parser for a flat JSON object, sending its string values to the field mapping. */
+    private static final class JsonLine {
+        private final String s;
+        private final DublinCoreParser parser;
+        private final StringBuilder sb = new StringBuilder();
+        private int pos;
+
+        JsonLine(String s, DublinCoreParser parser) {
+            this.s = s;
+            this.parser = parser;
+        }
+
+        void parseObject() {
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                String key = parseString();
+                expect(':');
+                parseValue(key, true);
+                char c = next();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+            if (peek() != 0) {
+                throw error("trailing characters");
+            }
+        }
+
+        /**
+         * @param key          Key of the value, null to skip it
+         * @param arrayAllowed Whether the value may be an array
+         */
+        private void parseValue(String key, boolean arrayAllowed) {
+            char c = peek();
+            if (c == '{' || (c == '[' && !arrayAllowed)) {
+                // no text to index, but still checked
+                skipValue();
+            } else if (c == '"') {
+                add(key, parseString());
+            } else if (c == '[' && arrayAllowed) {
+                pos++;
+                if (peek() == ']') {
+                    pos++;
+                    return;
+                }
+                while (true) {
+                    parseValue(key, false);
+                    char d = next();
+                    if (d == ']') {
+                        return;
+                    }
+                    if (d != ',') {
+                        throw error("expected ',' or ']'");
+                    }
+                }
+            } else if (s.startsWith("null", pos)) {
+                pos += 4;
+            } else if (s.startsWith("true", pos) || s.startsWith("false", pos)) {
+                String literal = s.startsWith("true", pos) ? "true" : "false";
+                pos += literal.length();
+                add(key, literal);
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                int start = pos;
+                while (pos < s.length() && "+-.eE0123456789".indexOf(s.charAt(pos)) >= 0) {
+                    pos++;
+                }
+                add(key, s.substring(start, pos));
+            } else {
+                throw error("unsupported value");
+            }
+        }
+
+        private void add(String key, String value) {
+            if (key != null) {
+                parser.addValue(key, value);
+            }
+        }
+
+        /** Consumes a value of any type, nested or not, without adding it. */
+        private void skipValue() {
+            char c = peek();
+            char close = c == '{' ? '}' : ']';
+            if (c != '{' && c != '[') {
+                parseValue(null, false);
+                return;
+            }
+            pos++;
+            if (peek() == close) {
+                pos++;
+                return;
+            }
+            while (true) {
+                if (close == '}') {
+                    parseString();
+                    expect(':');
+                }
+                skipValue();
+                char d = next();
+                if (d == close) {
+                    return;
+                }
+                if (d != ',') {
+                    throw error("expected ',' or '" + close + "'");
+                }
+            }
+        }
+
+        private String parseString() {
+            expect('"');
+            sb.setLength(0);
+            while (pos < s.length()) {
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= s.length()) {
+                    break;
+                }
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > s.length()) {
+                            throw error("bad unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        /** @return The next non-blank character, consumed, or 0 at the end */
+        private char next() {
+            char c = peek();
+            if (c != 0) {
+                pos++;
+            }
+            return c;
+        }
+
+        /** @return The next non-blank character, not consumed, or 0 at the end */
+        private char peek() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            return pos < s.length() ? s.charAt(pos) : 0;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (pos + 1));
+        }
+    }
+
+    /** Consecutive lines of the file, starting at a known line index. */
+    private static final class Batch {
+        static final Batch END = new Batch(-1);
+
+        final int firstIndex;
+        final List<String> lines = new ArrayList<>(BATCH_SIZE);
+
+        Batch(int firstIndex) {
+            this.firstIndex = firstIndex;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.apache.lucene.demo;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Numeric forms of {@code dc:date} values, indexed as points for fast range
+ * queries.
+ * <p>
+ * Harvested dates come as a bare year ("2015"), a month ("2015-06"), a day
+ * ("2015-06-30") or a full ISO timestamp. All of them have a year, stored in
+ * {@link #YEAR_FIELD}, and the start of the period they denote, as
+ * milliseconds since the epoch in UTC, stored in {@link #EPOCH_FIELD}.
+ */
+final class DublinCoreDates {
+
+    /** Field with the year of the date, as an int point and doc values. */
+    static final String YEAR_FIELD = "year";
+
+    /** Field with the date in epoch milliseconds, as a long point and doc values. */
+    static final String EPOCH_FIELD = "epoch";
+
+    /** Returned when a value has no usable year. */
+    static final int NO_YEAR = Integer.MIN_VALUE;
+
+    private DublinCoreDates() {
+    }
+
+    /**
+     * @param value A {@code dc:date} value
+     * @return Its year, or {@link #NO_YEAR} if it doesn't start with four digits
+     */
+    static int parseYear(String value) {
+        String v = value.trim();
+        if (v.length() < 4) {
+            return NO_YEAR;
+        }
+        int year = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = v.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_YEAR;
+            }
+            year = year * 10 + (c - '0');
+        }
+        if (v.length() > 4 && Character.isDigit(v.charAt(4))) {
+            // more than four digits, not a year
+            return NO_YEAR;
+        }
+        return year;
+    }
+
+    /**
+     * @param value A {@code dc:date} value
+     * @return The start of the period it denotes in epoch milliseconds, or
+     *         {@link Long#MIN_VALUE} if it can't be parsed
+     */
+    static long parseEpochMillis(String value) {
+        return parseEpochMillis(value, false);
+    }
+
+    /**
+     * @param value A {@code dc:date} value
+     * @return The last millisecond of the period it denotes, e.g. of the whole
+     *         day for {@code 2015-06-30}, or {@link Long#MIN_VALUE} if it can't
+     *         be parsed
+     */
+    static long parseEpochMillisEnd(String value) {
+        return parseEpochMillis(value, true);
+    }
+
+    private static long parseEpochMillis(String value, boolean end) {
+        String v = value.trim();
+        int year = parseYear(v);
+        if (year == NO_YEAR) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            if (v.length() == 4) {
+                return startOf(LocalDate.of(year, 1, 1), end ? LocalDate.of(year + 1, 1, 1) : null);
+            } else if (v.length() == 7) {
+                LocalDate month = LocalDate.parse(v + "-01");
+                return startOf(month, end ? month.plusMonths(1) : null);
+            } else if (v.length() == 10) {
+                LocalDate day = LocalDate.parse(v);
+                return startOf(day, end ? day.plusDays(1) : null);
+            } else if (v.endsWith("Z") || v.lastIndexOf('+') > 10 || v.lastIndexOf('-') > 10) {
+                return OffsetDateTime.parse(v).toInstant().toEpochMilli();
+            } else {
+                return LocalDateTime.parse(v).toInstant(ZoneOffset.UTC).toEpochMilli();
+            }
+        } catch (DateTimeParseException e) {
+            // at least the year is right
+            return startOf(LocalDate.of(year, 1, 1), end ? LocalDate.of(year + 1, 1, 1) : null);
+        }
+    }
+
+    /**
+     * @return The start of a day in epoch milliseconds, or the millisecond
+     *         before the start of the next period if it is given
+     */
+    private static long startOf(LocalDate day, LocalDate next) {
+        if (next != null) {
+            return next.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli() - 1;
+        }
+        return day.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,201 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsCollectorManager;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollectorManager;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Facets of the records: counts of the hits of a query by type, subject,
+ * publisher and year.
+ * <p>
+ * The values are indexed as {@link SortedSetDocValuesFacetField}s, so no
+ * taxonomy index is needed: every dimension is flat, and the publisher is
+ * counted by its full value (e.g. "Universidad de Zaragoza, Ingeniería
+ * Informática"). The counts are computed in the same pass over the hits as
+ * the top documents, see {@link #search(IndexSearcher, Query, int, int)}.
+ */
+final class DublinCoreFacets {
+
+    static final String TYPE = "type";
+    static final String SUBJECT = "subject";
+    static final String PUBLISHER = "publisher";
+    static final String YEAR = "year";
+
+    /** Dimensions in the order they are shown. */
+    static final String[] DIMS = { TYPE, SUBJECT, PUBLISHER, YEAR };
+
+    /** Most values returned per dimension, the counting allocates a queue of that size. */
+    static final int MAX_LABELS = 1000;
+
+    /** Facet settings of the index: any record may have several values of a dimension. */
+    static final FacetsConfig CONFIG = new FacetsConfig();
+
+    static {
+        for (String dim : DIMS) {
+            CONFIG.setMultiValued(dim, true);
+        }
+    }
+
+    /**
+     * Ordinals of the facet labels per reader. Building them reads all the
+     * labels of the index, so it's done once per reader and dropped when the
+     * reader is closed.
+     */
+    private static final Map<Object, SortedSetDocValuesReaderState> STATES = new ConcurrentHashMap<>();
+
+    /** Whether each open reader has facets, checked once per reader. */
+    private static final Map<IndexReader, Boolean> HAS_FACETS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private DublinCoreFacets() {
+    }
+
+    /**
+     * @param dim   Dimension of the facet
+     * @param value Value in the record
+     * @return The facet field, or null if the value is blank
+     */
+    static SortedSetDocValuesFacetField field(String dim, String value) {
+        String label = value.trim();
+        return label.isEmpty() ? null : new SortedSetDocValuesFacetField(dim, label);
+    }
+
+    /**
+     * Turns the facet fields of a document into the doc values and drill-down
+     * terms that are actually indexed.
+     *
+     * @param doc A document with facet fields
+     * @return The document to add to the index
+     * @throws IOException If the facet fields are not valid
+     */
+    static Document build(Document doc) throws IOException {
+        return CONFIG.build(doc);
+    }
+
+    /** The top hits and facet counts of a query. */
+    static final class Result {
+        final TopDocs topDocs;
+        final List<FacetResult> facets;
+
+        Result(TopDocs topDocs, List<FacetResult> facets) {
+            this.topDocs = topDocs;
+            this.facets = facets;
+        }
+    }
+
+    /**
+     * Runs a query once, collecting its top hits and counting all its hits in
+     * every dimension. All the hits are visited, so the total count is exact.
+     *
+     * @param searcher Searcher over an index written with facets
+     * @param query    The query
+     * @param n        Number of top hits to collect, 0 to only count them
+     * @param topN     Number of values to return per dimension, at most
+     *                 {@link #MAX_LABELS}
+     * @return The hits and the counts
+     * @throws IOException              If the index can't be read
+     * @throws IllegalArgumentException If the index has no facets
+     */
+    static Result search(IndexSearcher searcher, Query query, int n, int topN) throws IOException {
+        SortedSetDocValuesReaderState state = state(searcher.getIndexReader());
+        TopDocs topDocs;
+        FacetsCollector hits;
+        if (n <= 0) {
+            hits = searcher.search(query, new FacetsCollectorManager());
+            long total = 0;
+            for (FacetsCollector.MatchingDocs docs : hits.getMatchingDocs()) {
+                total += docs.totalHits;
+            }
+            topDocs = new TopDocs(new TotalHits(total, TotalHits.Relation.EQUAL_TO), new ScoreDoc[0]);
+        } else {
+            int numHits = Math.min(n, Math.max(1, searcher.getIndexReader().maxDoc()));
+            Object[] results = searcher.search(query, new MultiCollectorManager(
+                    TopScoreDocCollector.createSharedManager(numHits, null, Integer.MAX_VALUE),
+                    new FacetsCollectorManager()));
+            topDocs = (TopDocs) results[0];
+            hits = (FacetsCollector) results[1];
+        }
+
+        Facets facets = new SortedSetDocValuesFacetCounts(state, hits);
+        List<FacetResult> counts = new ArrayList<>(DIMS.length);
+        for (String dim : DIMS) {
+            FacetResult result = facets.getTopChildren(Math.min(topN, MAX_LABELS), dim);
+            if (result != null) {
+                counts.add(result);
+            }
+        }
+        return new Result(topDocs, counts);
+    }
+
+    /**
+     * @param reader An index
+     * @return False if the index was written before facets were added to it
+     */
+    static boolean hasFacets(IndexReader reader) {
+        // merging the field infos of every segment is too slow to do per query
+        return HAS_FACETS.computeIfAbsent(reader, r -> {
+            FieldInfo info = FieldInfos.getMergedFieldInfos(r).fieldInfo(FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+            return info != null && info.getDocValuesType() == DocValuesType.SORTED_SET;
+        });
+    }
+
+    private static SortedSetDocValuesReaderState state(IndexReader reader) throws IOException {
+        // sharded indexes too, see ShardedReader
+        Object key = ShardedReader.cacheKey(reader);
+        if (key == null) {
+            return new DefaultSortedSetDocValuesReaderState(reader);
+        }
+        SortedSetDocValuesReaderState state = STATES.get(key);
+        if (state == null) {
+            state = new DefaultSortedSetDocValuesReaderState(reader);
+            if (STATES.putIfAbsent(key, state) == null) {
+                ShardedReader.whenClosed(reader, key, STATES::remove);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @param facets Facet counts of a search
+     * @return One line per dimension, e.g. {@code type: TAZ-TFG (12), TESIS (3)}
+     */
+    static String format(List<FacetResult> facets) {
+        StringBuilder sb = new StringBuilder();
+        for (FacetResult facet : facets) {
+            sb.append("  ").append(facet.dim).append(':');
+            String sep = " ";
+            for (LabelAndValue lv : facet.labelValues) {
+                sb.append(sep).append(lv.label).append(" (").append(lv.value).append(')');
+                sep = ", ";
+            }
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
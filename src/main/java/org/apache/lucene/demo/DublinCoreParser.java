@@ -0,0 +1,366 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Single-pass streaming extractor for Dublin Core records.
+ * <p>
+ * Reads the XML with StAX and sends the text of every mapped {@code dc:*}
+ * element straight into a Lucene {@link Field}, so no DOM tree is built. A
+ * file may hold a single record, or many of them wrapped in
+ * {@code oai_dc:dc} elements (e.g. an OAI-PMH ListRecords response); every
+ * record is handed to the {@link RecordHandler} as soon as it ends.
+ * <p>
+ * Records read from other formats go through the same mapping with
+ * {@link #startRecord()}, {@link #addValue(String, String)} and
+ * {@link #finishRecord()}.
+ * <p>
+ * The {@link Field} instances are reused from one record to the next, so a
+ * record must be fully consumed (e.g. added to the index) before the handler
+ * returns. Instances of this class are not thread-safe, use one per thread.
+ */
+final class DublinCoreParser {
+
+    /** Element wrapping each record in multi-record files. */
+    static final String RECORD_ELEMENT = "oai_dc:dc";
+
+    /** Mapping from Dublin Core element to Lucene field. */
+    private static final String[][] MAPPING = {
+            // element, field, kind: tokenized text, exact string, exact string
+            // with doc values to read it column-wise for sorting and rendering,
+            // or the same plus the numeric forms of a date for range queries;
+            // and whether the values are counted as a facet (the year for dates)
+            { "dc:title", "title", "text", "" },
+            { "dc:subject", "subject", "string", DublinCoreFacets.SUBJECT },
+            { "dc:description", "description", "text", "" },
+            { "dc:creator", "creator", "text", "" },
+            { "dc:contributor", "contributor", "text", "" },
+            { "dc:publisher", "publisher", "text", DublinCoreFacets.PUBLISHER },
+            { "dc:date", "date", "date", DublinCoreFacets.YEAR },
+            { "dc:type", "type", "column", DublinCoreFacets.TYPE },
+    };
+
+    private static final Metrics.Timer PARSE_TIME = Metrics.GLOBAL.timer("index_parse_seconds",
+            "Time to parse a record into a document, without handling it");
+
+    /** Receives every record found in the input. */
+    interface RecordHandler {
+        /**
+         * @param doc         The fields of the record
+         * @param recordIndex Position of the record in the input, starting at 0
+         * @throws IOException If the record can't be consumed
+         */
+        void record(Document doc, int recordIndex) throws IOException;
+    }
+
+    private final XMLInputFactory factory;
+    private final Map<String, Slot> slots = new HashMap<>();
+    /** Slots by field name as well as by element, for records that are not XML. */
+    private final Map<String, Slot> valueSlots = new HashMap<>();
+    private final List<Slot> slotList = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    /** When parsing of the current record started, the handler time is left out. */
+    private long recordStart;
+
+    DublinCoreParser() {
+        factory = XMLInputFactory.newInstance();
+        // the harvested files use the dc: and oai_dc: prefixes without always
+        // declaring them, so match on the qualified names like the DOM code did
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        for (String[] m : MAPPING) {
+            boolean date = "date".equals(m[2]);
+            Slot slot = new Slot(m[1], "text".equals(m[2]), date || "column".equals(m[2]), date,
+                    m[3].isEmpty() ? null : m[3]);
+            slots.put(m[0], slot);
+            valueSlots.put(m[0], slot);
+            valueSlots.put(m[1], slot);
+            slotList.add(slot);
+        }
+    }
+
+    /**
+     * Streams the records of an XML input to the handler.
+     *
+     * @param in      The XML input, not closed by this method
+     * @param handler Receiver for the records
+     * @return Number of records found
+     * @throws IOException        If the handler fails
+     * @throws XMLStreamException If the input is not well-formed XML
+     */
+    int parse(InputStream in, RecordHandler handler) throws IOException, XMLStreamException {
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            return parse(reader, handler);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private int parse(XMLStreamReader reader, RecordHandler handler) throws IOException, XMLStreamException {
+        int records = 0;
+        // dc:* elements found outside of a record wrapper, i.e. a single-record file
+        boolean looseFields = false;
+        boolean inRecord = false;
+        reset();
+        recordStart = System.nanoTime();
+
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = qualifiedName(reader);
+            if (RECORD_ELEMENT.equals(name)) {
+                if (looseFields) {
+                    handler.record(toDocument(), records++);
+                    recordStart = System.nanoTime();
+                    looseFields = false;
+                }
+                reset();
+                inRecord = true;
+                readRecord(reader);
+                handler.record(toDocument(), records++);
+                recordStart = System.nanoTime();
+                inRecord = false;
+            } else {
+                Slot slot = slots.get(name);
+                if (slot != null) {
+                    slot.add(readText(reader));
+                    looseFields |= !inRecord;
+                }
+            }
+        }
+
+        if (looseFields) {
+            handler.record(toDocument(), records++);
+        }
+        return records;
+    }
+
+    /** Collects the mapped fields up to the end of the current record element. */
+    private void readRecord(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Slot slot = slots.get(qualifiedName(reader));
+                if (slot != null) {
+                    // consumes the matching end element
+                    slot.add(readText(reader));
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Concatenates all the text below the current element, like
+     * {@link org.w3c.dom.Node#getTextContent()}, leaving the reader on its end
+     * element.
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException {
+        text.setLength(0);
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return text.toString();
+    }
+
+    /** Starts a record built value by value, dropping any unfinished one. */
+    void startRecord() {
+        reset();
+        recordStart = System.nanoTime();
+    }
+
+    /**
+     * Adds a value to the record started with {@link #startRecord()}.
+     *
+     * @param name  Dublin Core element ("dc:title") or field name ("title")
+     * @param value Text of the element
+     * @return False if the name is not mapped and the value was ignored
+     */
+    boolean addValue(String name, String value) {
+        Slot slot = valueSlots.get(name);
+        if (slot == null) {
+            return false;
+        }
+        slot.add(value);
+        return true;
+    }
+
+    /**
+     * @return The record built since {@link #startRecord()}, with the same
+     *         fields an XML record would have. Reused by the next record.
+     */
+    Document finishRecord() {
+        return toDocument();
+    }
+
+    private static String qualifiedName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        String local = reader.getLocalName();
+        return prefix == null || prefix.isEmpty() ? local : prefix + ":" + local;
+    }
+
+    private void reset() {
+        for (Slot slot : slotList) {
+            slot.used = 0;
+            slot.datesUsed = 0;
+        }
+    }
+
+    /**
+     * Builds a document with the fields filled in since the last reset. Its
+     * facet fields must go through {@link DublinCoreFacets#build(Document)}
+     * before it is indexed.
+     */
+    private Document toDocument() {
+        PARSE_TIME.recordSince(recordStart);
+        Document doc = new Document();
+        for (Slot slot : slotList) {
+            for (int i = 0; i < slot.used; i++) {
+                doc.add(slot.fields.get(i));
+                if (slot.docValues != null) {
+                    doc.add(slot.docValues.get(i));
+                }
+            }
+            for (int i = 0; i < slot.datesUsed; i++) {
+                for (Field field : slot.dates.get(i)) {
+                    doc.add(field);
+                }
+            }
+            addFacets(slot, doc);
+        }
+        reset();
+        return doc;
+    }
+
+    /** Facet fields are immutable, so unlike the others they are new for every record. */
+    private static void addFacets(Slot slot, Document doc) {
+        if (slot.facetDim == null) {
+            return;
+        }
+        if (slot.dates != null) {
+            for (int i = 0; i < slot.datesUsed; i++) {
+                // the year doc values of the date
+                doc.add(DublinCoreFacets.field(slot.facetDim, slot.dates.get(i)[1].numericValue().toString()));
+            }
+            return;
+        }
+        for (int i = 0; i < slot.used; i++) {
+            SortedSetDocValuesFacetField facet = DublinCoreFacets.field(slot.facetDim, slot.fields.get(i).stringValue());
+            if (facet != null) {
+                doc.add(facet);
+            }
+        }
+    }
+
+    /** Reusable fields for one Dublin Core element, which may repeat in a record. */
+    private static final class Slot {
+        final String fieldName;
+        final boolean tokenized;
+        final List<Field> fields = new ArrayList<>(2);
+        /** Sorted set doc values matching {@link #fields}, null if not wanted. */
+        final List<SortedSetDocValuesField> docValues;
+        /** Year and epoch points and doc values of the valid dates, null if not wanted. */
+        final List<Field[]> dates;
+        /** Facet dimension of the values, null if not counted. */
+        final String facetDim;
+        int used;
+        int datesUsed;
+
+        Slot(String fieldName, boolean tokenized, boolean docValues, boolean dates, String facetDim) {
+            this.fieldName = fieldName;
+            this.facetDim = facetDim;
+            this.tokenized = tokenized;
+            this.docValues = docValues ? new ArrayList<>(2) : null;
+            this.dates = dates ? new ArrayList<>(2) : null;
+        }
+
+        void add(String value) {
+            if (used == fields.size()) {
+                fields.add(tokenized
+                        ? new TextField(fieldName, value, Field.Store.YES)
+                        : new StringField(fieldName, value, Field.Store.YES));
+                if (docValues != null) {
+                    docValues.add(new SortedSetDocValuesField(fieldName, new BytesRef(value)));
+                }
+            } else {
+                fields.get(used).setStringValue(value);
+                if (docValues != null) {
+                    docValues.get(used).setBytesValue(new BytesRef(value));
+                }
+            }
+            used++;
+
+            if (dates != null) {
+                addDate(value);
+            }
+        }
+
+        private void addDate(String value) {
+            int year = DublinCoreDates.parseYear(value);
+            if (year == DublinCoreDates.NO_YEAR) {
+                return;
+            }
+            long epoch = DublinCoreDates.parseEpochMillis(value);
+            if (datesUsed == dates.size()) {
+                dates.add(new Field[] {
+                        new IntPoint(DublinCoreDates.YEAR_FIELD, year),
+                        new SortedNumericDocValuesField(DublinCoreDates.YEAR_FIELD, year),
+                        new LongPoint(DublinCoreDates.EPOCH_FIELD, epoch),
+                        new SortedNumericDocValuesField(DublinCoreDates.EPOCH_FIELD, epoch) });
+            } else {
+                Field[] fields = dates.get(datesUsed);
+                fields[0].setIntValue(year);
+                fields[1].setLongValue(year);
+                fields[2].setLongValue(epoch);
+                fields[3].setLongValue(epoch);
+            }
+            datesUsed++;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Query;
+
+/**
+ * {@link MultiFieldQueryParser} that turns ranges on the "date" field, such as
+ * {@code date:[2010 TO 2018]}, into point range queries on the numeric forms
+ * of the date instead of walking the term dictionary. Years become an
+ * {@link IntPoint} range on {@link DublinCoreDates#YEAR_FIELD}, full dates a
+ * {@link LongPoint} range on {@link DublinCoreDates#EPOCH_FIELD}. Anything else
+ * is left to the default string range.
+ */
+public class DublinCoreQueryParser extends MultiFieldQueryParser {
+
+    /**
+     * @param fields   Default fields of the terms without an explicit field
+     * @param analyzer Analyzer for the query text
+     */
+    public DublinCoreQueryParser(String[] fields, Analyzer analyzer) {
+        super(fields, analyzer);
+    }
+
+    @Override
+    protected Query getRangeQuery(String field, String part1, String part2, boolean startInclusive,
+            boolean endInclusive) throws ParseException {
+        if ("date".equals(field)) {
+            Query query = newYearRange(part1, part2, startInclusive, endInclusive);
+            if (query == null) {
+                query = newEpochRange(part1, part2, startInclusive, endInclusive);
+            }
+            if (query != null) {
+                return query;
+            }
+        }
+        return super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+    }
+
+    /**
+     * Range over the year of the date, open ends are null.
+     *
+     * @return The query, or null if a bound is not a bare year
+     */
+    static Query newYearRange(String from, String to, boolean startInclusive, boolean endInclusive) {
+        int lower = Integer.MIN_VALUE;
+        int upper = Integer.MAX_VALUE;
+        if (from != null) {
+            if (from.trim().length() != 4 || (lower = DublinCoreDates.parseYear(from)) == DublinCoreDates.NO_YEAR) {
+                return null;
+            }
+            if (!startInclusive) {
+                lower++;
+            }
+        }
+        if (to != null) {
+            if (to.trim().length() != 4 || (upper = DublinCoreDates.parseYear(to)) == DublinCoreDates.NO_YEAR) {
+                return null;
+            }
+            if (!endInclusive) {
+                upper--;
+            }
+        }
+        return IntPoint.newRangeQuery(DublinCoreDates.YEAR_FIELD, lower, upper);
+    }
+
+    /**
+     * Range over the full date, open ends are null.
+     *
+     * @return The query, or null if a bound is not a date
+     */
+    private static Query newEpochRange(String from, String to, boolean startInclusive, boolean endInclusive) {
+        long lower = Long.MIN_VALUE;
+        long upper = Long.MAX_VALUE;
+        // an inclusive day or month takes all of it, an exclusive one none of it
+        if (from != null) {
+            lower = startInclusive ? DublinCoreDates.parseEpochMillis(from) : DublinCoreDates.parseEpochMillisEnd(from);
+            if (lower == Long.MIN_VALUE) {
+                return null;
+            }
+            if (!startInclusive) {
+                lower++;
+            }
+        }
+        if (to != null) {
+            upper = endInclusive ? DublinCoreDates.parseEpochMillisEnd(to) : DublinCoreDates.parseEpochMillis(to);
+            if (upper == Long.MIN_VALUE) {
+                return null;
+            }
+            if (!endInclusive) {
+                upper--;
+            }
+        }
+        return LongPoint.newRangeQuery(DublinCoreDates.EPOCH_FIELD, lower, upper);
+    }
+}
@@ -0,0 +1,226 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntroSorter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Collects every hit of a query, or the best {@code maxHits} of them, in a
+ * single pass.
+ * <p>
+ * Hits are kept as parallel {@code int}/{@code float} arrays instead of
+ * {@link org.apache.lucene.search.ScoreDoc} objects, and the total number of
+ * matches is counted while collecting, so there is no need for a first
+ * counting pass. When bounded, the arrays hold a min-heap of the best hits so
+ * memory does not grow with the size of the matching set.
+ */
+final class FullResultCollector extends SimpleCollector {
+
+    private final int maxHits;
+
+    private int[] docs;
+    private float[] scores;
+    private int size;
+    private int totalHits;
+    private boolean sorted;
+
+    private int docBase;
+    private Scorable scorer;
+
+    /**
+     * @param maxHits Maximum number of hits to keep, 0 or less to keep them all
+     */
+    FullResultCollector(int maxHits) {
+        this.maxHits = maxHits;
+        int initialSize = maxHits > 0 ? Math.min(maxHits, 1024) : 64;
+        docs = new int[initialSize];
+        scores = new float[initialSize];
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) {
+        docBase = context.docBase;
+    }
+
+    @Override
+    public void setScorer(Scorable scorer) {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        totalHits++;
+        float score = scorer.score();
+        int globalDoc = docBase + doc;
+
+        if (maxHits <= 0 || size < maxHits) {
+            if (size == docs.length) {
+                docs = ArrayUtil.grow(docs, size + 1);
+                scores = ArrayUtil.grow(scores, size + 1);
+            }
+            docs[size] = globalDoc;
+            scores[size] = score;
+            size++;
+            if (maxHits > 0) {
+                upHeap(size - 1);
+            }
+        } else if (score > scores[0] || (score == scores[0] && globalDoc < docs[0])) {
+            // segments of a slice are not always collected in id order, so ties
+            // are broken on the id like TopDocs does
+            docs[0] = globalDoc;
+            scores[0] = score;
+            downHeap(0);
+        }
+    }
+
+    /**
+     * @param maxHits Maximum number of hits to keep, 0 or less to keep them all
+     * @return A manager collecting each slice of a searcher on its own and
+     *         merging their hits, the same as a single collector would find
+     */
+    static CollectorManager<FullResultCollector, QueryResultCache.Hits> manager(int maxHits) {
+        return new CollectorManager<FullResultCollector, QueryResultCache.Hits>() {
+            @Override
+            public FullResultCollector newCollector() {
+                return new FullResultCollector(maxHits);
+            }
+
+            @Override
+            public QueryResultCache.Hits reduce(Collection<FullResultCollector> collectors) {
+                FullResultCollector merged;
+                if (collectors.size() == 1) {
+                    merged = collectors.iterator().next();
+                } else {
+                    merged = new FullResultCollector(0);
+                    for (FullResultCollector collector : collectors) {
+                        merged.addAll(collector);
+                    }
+                }
+                int size = maxHits > 0 ? Math.min(maxHits, merged.size) : merged.size;
+                return new QueryResultCache.Hits(Arrays.copyOf(merged.docs(), size),
+                        Arrays.copyOf(merged.scores(), size), size, merged.totalHits, TotalHits.Relation.EQUAL_TO);
+            }
+        };
+    }
+
+    /** Appends the kept hits and the count of another collector, unsorted. */
+    private void addAll(FullResultCollector other) {
+        docs = ArrayUtil.grow(docs, size + other.size);
+        scores = ArrayUtil.grow(scores, size + other.size);
+        System.arraycopy(other.docs, 0, docs, size, other.size);
+        System.arraycopy(other.scores, 0, scores, size, other.size);
+        size += other.size;
+        totalHits += other.totalHits;
+        sorted = false;
+    }
+
+    /** @return The number of documents matching the query */
+    int getTotalHits() {
+        return totalHits;
+    }
+
+    /** @return The number of hits kept */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The document ids of the kept hits, by decreasing score and then
+     *         increasing id like {@link org.apache.lucene.search.TopDocs}. Only
+     *         the first {@link #size()} entries are valid.
+     */
+    int[] docs() {
+        sort();
+        return docs;
+    }
+
+    /** @return The scores matching {@link #docs()} */
+    float[] scores() {
+        sort();
+        return scores;
+    }
+
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+        new IntroSorter() {
+            private float pivotScore;
+            private int pivotDoc;
+
+            @Override
+            protected void swap(int i, int j) {
+                FullResultCollector.this.swap(i, j);
+            }
+
+            @Override
+            protected void setPivot(int i) {
+                pivotScore = scores[i];
+                pivotDoc = docs[i];
+            }
+
+            @Override
+            protected int comparePivot(int j) {
+                int cmp = Float.compare(scores[j], pivotScore);
+                return cmp != 0 ? cmp : Integer.compare(pivotDoc, docs[j]);
+            }
+        }.sort(0, size);
+        sorted = true;
+    }
+
+    /** True if hit i is worse than hit j: lower score, or same score and higher id. */
+    private boolean worse(int i, int j) {
+        return scores[i] < scores[j] || (scores[i] == scores[j] && docs[i] > docs[j]);
+    }
+
+    private void upHeap(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void downHeap(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(child + 1, child)) {
+                child++;
+            }
+            if (!worse(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int doc = docs[i];
+        docs[i] = docs[j];
+        docs[j] = doc;
+        float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
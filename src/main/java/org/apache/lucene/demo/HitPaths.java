@@ -0,0 +1,126 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.IntroSorter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the "path" of a list of hits column-wise from doc values.
+ * <p>
+ * The hits are visited in document order, one segment after the other, so
+ * every doc values iterator only moves forward. Indexes built before the path
+ * doc values existed fall back to the stored field.
+ */
+final class HitPaths {
+
+    static final String PATH_FIELD = "path";
+
+    private static final Set<String> PATH_ONLY = Collections.singleton(PATH_FIELD);
+
+    private HitPaths() {
+    }
+
+    /**
+     * @param reader The reader the hits come from
+     * @param hits   The hits, in any order
+     * @param from   First hit to resolve
+     * @param to     End of the hits to resolve, exclusive
+     * @return The path of every hit, at the same position as in {@code hits}
+     *         minus {@code from}, null for documents without a path
+     * @throws IOException If there is a low-level I/O error
+     */
+    static String[] resolve(IndexReader reader, ScoreDoc[] hits, int from, int to) throws IOException {
+        int[] docs = new int[Math.max(0, to - from)];
+        for (int i = from; i < to; i++) {
+            docs[i - from] = hits[i].doc;
+        }
+        return resolve(reader, docs, 0, docs.length);
+    }
+
+    /**
+     * @param reader The reader the hits come from
+     * @param docs   Top-level document ids, in any order
+     * @param from   First hit to resolve
+     * @param to     End of the hits to resolve, exclusive
+     * @return The path of every hit, at the same position as in {@code docs}
+     *         minus {@code from}, null for documents without a path
+     * @throws IOException If there is a low-level I/O error
+     */
+    static String[] resolve(IndexReader reader, int[] docs, int from, int to) throws IOException {
+        int count = to - from;
+        String[] paths = new String[count];
+        if (count <= 0) {
+            return paths;
+        }
+
+        // positions of the hits, sorted by document
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        new IntroSorter() {
+            private int pivot;
+
+            @Override
+            protected void swap(int i, int j) {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+
+            @Override
+            protected void setPivot(int i) {
+                pivot = docs[from + order[i]];
+            }
+
+            @Override
+            protected int comparePivot(int j) {
+                return Integer.compare(pivot, docs[from + order[j]]);
+            }
+        }.sort(0, count);
+
+        List<LeafReaderContext> leaves = reader.leaves();
+        int leafIndex = -1;
+        LeafReader leaf = null;
+        int docBase = 0;
+        int leafEnd = 0;
+        BinaryDocValues values = null;
+        int lastDoc = -1;
+        String lastPath = null;
+
+        for (int i = 0; i < count; i++) {
+            int doc = docs[from + order[i]];
+            if (leaf == null || doc >= leafEnd) {
+                // move to the segment holding this document
+                do {
+                    leafIndex++;
+                    LeafReaderContext ctx = leaves.get(leafIndex);
+                    docBase = ctx.docBase;
+                    leafEnd = ctx.docBase + ctx.reader().maxDoc();
+                    leaf = ctx.reader();
+                } while (doc >= leafEnd);
+                values = leaf.getBinaryDocValues(PATH_FIELD);
+            }
+
+            if (doc != lastDoc) {
+                int local = doc - docBase;
+                if (values != null) {
+                    lastPath = values.advanceExact(local) ? values.binaryValue().utf8ToString() : null;
+                } else {
+                    lastPath = leaf.document(local, PATH_ONLY).get(PATH_FIELD);
+                }
+                lastDoc = doc;
+            }
+            paths[order[i]] = lastPath;
+        }
+        return paths;
+    }
+}
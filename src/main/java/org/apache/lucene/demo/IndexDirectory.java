@@ -0,0 +1,221 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FileSwitchDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * How the files of an index are accessed, chosen with {@code -directory}.
+ * <ul>
+ * <li>{@code auto}: whatever {@link FSDirectory#open(Path)} picks for the
+ * platform, memory mapped on 64-bit JVMs.</li>
+ * <li>{@code mmap}: the files are memory mapped, so the index lives off-heap
+ * in the page cache and reads are plain memory accesses.</li>
+ * <li>{@code nio}: the files are read with positional reads into heap
+ * buffers, for platforms where mapping is a problem (32-bit JVMs, address
+ * space limits).</li>
+ * </ul>
+ * A mapped index can preload some of its files when they are opened, i.e.
+ * touch every page so it is in memory before the first query needs it. The
+ * files are chosen by extension, e.g. {@code tip,tim,doc,pos,nvd,dvd,cfs} for
+ * the terms, postings, norms and doc values read by every query, leaving out
+ * the stored fields ({@code fdt}) that only the shown hits need. Preloading
+ * costs the time to read those files at startup and the memory to hold them.
+ */
+enum IndexDirectory {
+
+    AUTO("auto"),
+    MMAP("mmap"),
+    NIO("nio");
+
+    /** Extension meaning every file of the index, e.g. {@code -preload all}. */
+    static final String ALL = "all";
+
+    private static final Path SMAPS = Paths.get("/proc/self/smaps");
+
+    final String name;
+
+    IndexDirectory(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name Name of a mode as given on the command line
+     * @return The mode
+     * @throws IllegalArgumentException If there is no such mode
+     */
+    static IndexDirectory forName(String name) {
+        for (IndexDirectory mode : values()) {
+            if (mode.name.equals(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown directory '" + name + "', expected auto, mmap or nio");
+    }
+
+    /**
+     * @param list Extensions separated by commas, with or without the dot
+     * @return The extensions, without the dot
+     */
+    static Set<String> extensions(String list) {
+        Set<String> extensions = new TreeSet<>();
+        for (String extension : list.split(",")) {
+            extension = extension.trim();
+            if (extension.startsWith(".")) {
+                extension = extension.substring(1);
+            }
+            if (!extension.isEmpty()) {
+                extensions.add(extension);
+            }
+        }
+        return extensions;
+    }
+
+    /**
+     * Opens an index with this mode.
+     *
+     * @param path    Folder of the index
+     * @param preload Extensions of the files to load when opened, {@link #ALL}
+     *                for every file, or an empty set to load them on demand
+     * @return The directory
+     * @throws IOException              If the folder can't be opened
+     * @throws IllegalArgumentException If files have to be preloaded without
+     *                                  mapping them
+     */
+    Directory open(Path path, Set<String> preload) throws IOException {
+        if (this == NIO) {
+            if (!preload.isEmpty()) {
+                throw new IllegalArgumentException("Only mapped directories can preload files, not nio");
+            }
+            return new NIOFSDirectory(path);
+        }
+        if (preload.isEmpty()) {
+            return this == MMAP ? new MMapDirectory(path) : FSDirectory.open(path);
+        }
+        MMapDirectory preloaded = new MMapDirectory(path);
+        preloaded.setPreload(true);
+        if (preload.contains(ALL)) {
+            return preloaded;
+        }
+        // both views share the folder, the extension decides which one opens a file
+        return new FileSwitchDirectory(preload, preloaded, new MMapDirectory(path), true);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * @param path Folder of an index
+     * @return Total size of its files in bytes, those of its shards included
+     * @throws IOException If the index can't be listed
+     */
+    static long sizeInBytes(Path path) throws IOException {
+        long bytes = 0;
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                try {
+                    if (Files.isRegularFile(file)) {
+                        bytes += Files.size(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // deleted by a merge while listing
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes of the mapped files of an index that are currently in memory, as
+     * Linux reports them for this process in {@code /proc/self/smaps}. Files
+     * read without mapping them may be cached by the OS too, but that is not
+     * visible from here.
+     *
+     * @param path Folder of the index
+     * @return The resident bytes, or -1 if the platform doesn't report them
+     */
+    static long residentBytes(Path path) {
+        if (!Files.isReadable(SMAPS)) {
+            return -1;
+        }
+        String folder = path.toAbsolutePath().normalize() + "/";
+        long kilobytes = 0;
+        boolean inIndex = false;
+        try (BufferedReader in = Files.newBufferedReader(SMAPS, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // a mapping starts with "start-end perms offset dev inode path",
+                // followed by "Key: value kB" lines
+                int colon = line.indexOf(':');
+                int space = line.indexOf(' ');
+                if (space > 0 && (colon < 0 || colon > space) && line.indexOf('-') < space) {
+                    int slash = line.indexOf('/');
+                    inIndex = slash >= 0 && line.startsWith(folder, slash);
+                } else if (inIndex && line.startsWith("Rss:")) {
+                    kilobytes += Long.parseLong(line.substring(4).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return kilobytes * 1024;
+    }
+
+    /**
+     * Registers the size and resident bytes of an index as gauges.
+     *
+     * @param path Folder of the index
+     */
+    static void registerGauges(Path path) {
+        Metrics.GLOBAL.gauge("index_size_bytes", "Size of the files of the index", () -> {
+            try {
+                return sizeInBytes(path);
+            } catch (IOException e) {
+                return Double.NaN;
+            }
+        });
+        Metrics.GLOBAL.gauge("index_resident_bytes", "Bytes of the mapped index files in memory",
+                () -> residentBytes(path));
+    }
+
+    /**
+     * @param path    Folder of an index opened with this mode
+     * @param preload Extensions preloaded when the index was opened
+     * @return A line with the size of the index and how much of it is resident
+     * @throws IOException If the index can't be listed
+     */
+    String report(Path path, Set<String> preload) throws IOException {
+        long size = sizeInBytes(path);
+        long resident = this == NIO ? -1 : residentBytes(path);
+        String line = String.format("Index: %.1f MB", size / 1048576.0);
+        if (resident >= 0) {
+            line += String.format(", %.1f MB mapped and resident (%.0f%%)", resident / 1048576.0,
+                    size > 0 ? 100.0 * resident / size : 0.0);
+        }
+        if (!preload.isEmpty()) {
+            line += ", preloaded " + String.join(",", preload);
+        }
+        return line;
+    }
+
+    /** @return No extensions, to open an index without preloading any file */
+    static Set<String> noPreload() {
+        return Collections.emptySet();
+    }
+}
@@ -26,22 +26,23 @@ import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.apache.lucene.util.BytesRef;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Paths;
 import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Index all text files under a directory.
@@ -51,18 +52,40 @@ import javax.xml.parsers.DocumentBuilderFactory;
  */
 public class IndexFiles {
 
+    private static final Metrics.Timer ADD_DOCUMENT_TIME = Metrics.GLOBAL.timer("index_add_document_seconds",
+            "Time to add or update a document in the writer, analysis included");
+    private static final Metrics.Counter DOCUMENTS = Metrics.GLOBAL.counter("index_documents_total",
+            "Documents added or updated");
+
     private IndexFiles() {
     }
 
     /** Index all text files under a directory. */
     public static void main(String[] args) {
         String usage = "java org.apache.lucene.demo.IndexFiles"
-                + " [-index INDEX_PATH] [-docs DOCS_PATH] [-update]\n\n"
-                + "This indexes the documents in DOCS_PATH, creating a Lucene index"
-                + "in INDEX_PATH that can be searched with SearchFiles";
+                + " [-index INDEX_PATH] [-docs DOCS_PATH] [-update] [-incremental] [-threads N] [-commitEvery SECONDS]"
+                + " [-stemCacheLoad FILE] [-stemCacheDump FILE]"
+                + " [-profile bulk|incremental|read] [-ramBufferMB MB] [-mergeThreads N] [-forceMerge SEGMENTS]"
+                + " [-metrics FILE] [-metricsEvery SECONDS] [-directory auto|mmap|nio] [-shards N]\n\n"
+                + "This indexes the documents in DOCS_PATH"
+                + " (XML files, or JSONL/TSV dumps with a record per line),"
+                + " creating a Lucene index in INDEX_PATH that can be searched with SearchFiles";
         String indexPath = "index";
         String docsPath = null;
         boolean create = true;
+        boolean incremental = false;
+        int threads = 0;
+        long commitEvery = 0;
+        String stemCacheLoad = null;
+        String stemCacheDump = null;
+        IndexProfile profile = null;
+        double ramBufferMB = 0;
+        int mergeThreads = -1;
+        int forceMerge = -1;
+        String metricsFile = null;
+        long metricsEvery = 0;
+        IndexDirectory directoryMode = IndexDirectory.AUTO;
+        int shards = 0;
         for (int i = 0; i < args.length; i++) {
             if ("-index".equals(args[i])) {
                 indexPath = args[i + 1];
@@ -72,6 +95,45 @@ public class IndexFiles {
                 i++;
             } else if ("-update".equals(args[i])) {
                 create = false;
+            } else if ("-incremental".equals(args[i])) {
+                create = false;
+                incremental = true;
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if ("-commitEvery".equals(args[i])) {
+                commitEvery = Long.parseLong(args[i + 1]);
+                i++;
+            } else if ("-stemCacheLoad".equals(args[i])) {
+                stemCacheLoad = args[i + 1];
+                i++;
+            } else if ("-stemCacheDump".equals(args[i])) {
+                stemCacheDump = args[i + 1];
+                i++;
+            } else if ("-profile".equals(args[i])) {
+                profile = IndexProfile.forName(args[i + 1]);
+                i++;
+            } else if ("-ramBufferMB".equals(args[i])) {
+                ramBufferMB = Double.parseDouble(args[i + 1]);
+                i++;
+            } else if ("-mergeThreads".equals(args[i])) {
+                mergeThreads = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if ("-forceMerge".equals(args[i])) {
+                forceMerge = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if ("-metrics".equals(args[i])) {
+                metricsFile = args[i + 1];
+                i++;
+            } else if ("-metricsEvery".equals(args[i])) {
+                metricsEvery = Long.parseLong(args[i + 1]);
+                i++;
+            } else if ("-directory".equals(args[i])) {
+                directoryMode = IndexDirectory.forName(args[i + 1]);
+                i++;
+            } else if ("-shards".equals(args[i])) {
+                shards = Integer.parseInt(args[i + 1]);
+                i++;
             }
         }
 
@@ -91,38 +153,161 @@ public class IndexFiles {
         try {
             System.out.println("Indexing to directory '" + indexPath + "'...");
 
-            Directory dir = FSDirectory.open(Paths.get(indexPath));
-            Analyzer analyzer = new SpanishAnalyzer2();
-            IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+            if (stemCacheLoad != null) {
+                StemCache.preloadShared(Paths.get(stemCacheLoad));
+            }
 
-            if (create) {
-                // Create a new index in the directory, removing any
-                // previously indexed documents:
-                iwc.setOpenMode(OpenMode.CREATE);
+            // Per-stage latencies and throughput, dumped to a JSON or
+            // Prometheus file at the end and, if asked, while indexing
+            long startNanos = System.nanoTime();
+            Metrics.GLOBAL.gauge("index_documents_per_second", "Documents written per second since the start",
+                    () -> DOCUMENTS.get() / ((System.nanoTime() - startNanos) / 1e9));
+            ScheduledExecutorService metricsDumper = null;
+            if (metricsFile != null && metricsEvery > 0) {
+                metricsDumper = Metrics.GLOBAL.startDumping(Paths.get(metricsFile), metricsEvery);
+            }
+
+            if (shards > 0 && incremental) {
+                System.err.println("-incremental can't be used with -shards, the manifest covers a single index");
+                System.exit(1);
+            }
+            int existingShards = IndexShards.count(Paths.get(indexPath));
+            if (shards > 0 && existingShards > 0 && (create ? existingShards > shards : existingShards != shards)) {
+                // records are routed by the number of shards, and searches read every shard folder
+                System.err.println("The index has " + existingShards + " shards, remove it to build "
+                        + shards + " shards");
+                System.exit(1);
+            }
+            if (shards == 0 && existingShards > 0) {
+                // searches would keep reading the shards and ignore the new index
+                System.err.println("The index has " + existingShards + " shards, remove it to build"
+                        + " an unsharded index or give -shards " + existingShards);
+                System.exit(1);
+            }
+            if (shards > 0 && IndexShards.hasUnshardedIndex(Paths.get(indexPath))) {
+                // the shards would hide the old index, and updates would not replace its records
+                System.err.println("The index is not sharded, remove it to build " + shards + " shards");
+                System.exit(1);
+            }
+            if (shards > 0 && threads <= 0) {
+                // the shards are only written in parallel if the documents are
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+
+            // Writer settings for the kind of run, see IndexProfile. Without a
+            // profile the Lucene defaults are kept, but for the given overrides.
+            // Large RAM buffers need a larger max heap (eg add -Xmx512m or -Xmx1g)
+            if (profile != null) {
+                if (forceMerge < 0) {
+                    forceMerge = profile.forceMergeSegments;
+                }
+            }
+            if (shards > 0) {
+                // the shards share the RAM buffer, so the heap needed stays the same
+                double totalRamBufferMB = ramBufferMB > 0 ? ramBufferMB
+                        : profile != null ? profile.ramBufferMB : IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+                ramBufferMB = totalRamBufferMB / shards;
+                System.out.println(String.format("%d shards, %.1f MB RAM buffer each", shards, ramBufferMB));
+            }
+            IndexTimings[] timings = new IndexTimings[Math.max(1, shards)];
+            IndexProfile shardProfile = profile;
+            double shardRamBufferMB = ramBufferMB;
+            int shardMergeThreads = mergeThreads;
+            boolean createIndex = create;
+            IndexShards index = IndexShards.open(Paths.get(indexPath), shards, directoryMode, shard -> {
+                timings[shard] = new IndexTimings();
+                return newConfig(createIndex, shardProfile, shardRamBufferMB, shardMergeThreads, timings[shard]);
+            });
+            // what the writers really use, the overrides and the split between shards included
+            System.out.println((profile != null ? "Profile " + profile.name : "Writer") + ": "
+                    + IndexProfile.describe(index.writer(0).getConfig(), Math.max(0, forceMerge))
+                    + (shards > 0 ? " per shard" : ""));
+
+            // Only reindex files whose modification date and content changed since
+            // the last run, and drop the ones that are gone
+            IndexManifest manifest = incremental ? IndexManifest.load(index.writer(0).getDirectory()) : null;
+
+            // Commit periodically so a running SearchServer sees the documents
+            // indexed so far instead of waiting for the whole run
+            ScheduledExecutorService committer = null;
+            if (commitEvery > 0) {
+                committer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "periodic-commit");
+                    t.setDaemon(true);
+                    return t;
+                });
+                committer.scheduleWithFixedDelay(() -> {
+                    try {
+                        index.commit();
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("Periodic commit failed: " + e.getMessage());
+                    }
+                }, commitEvery, commitEvery, TimeUnit.SECONDS);
+            }
+
+            if (threads > 0 && BulkRecordReader.isBulkFile(docDir)) {
+                // A single dump file: read it sequentially and build the
+                // documents of its lines on several threads
+                String hash = manifest != null ? manifest.prepare(index.writer(0), docDir) : null;
+                if (manifest == null || hash != null) {
+                    int records = BulkRecordReader.read(docDir, threads, withSourceFields(docDir, hash,
+                            (doc, recordIndex) -> writeDocument(index.writerFor(doc.get("path")), doc)));
+                    System.out.println(records + " records read from " + docDir);
+                }
+            } else if (threads > 0) {
+                // Walk, parse and index on separate stages, sharing the writers
+                ParallelIndexer indexer = new ParallelIndexer(index, threads, manifest);
+                indexer.run(docDir);
+                indexer.printReport();
             } else {
-                // Add new documents to an existing index:
-                iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+                indexDocs(index.writer(0), docDir, manifest);
             }
 
-            // Optional: for better indexing performance, if you
-            // are indexing many documents, increase the RAM
-            // buffer. But if you do this, increase the max heap
-            // size to the JVM (eg add -Xmx512m or -Xmx1g):
-            //
-            // iwc.setRAMBufferSizeMB(256.0);
+            if (manifest != null) {
+                manifest.deleteMissing(index.writer(0), docDir);
+                manifest.save(index.writer(0));
+                manifest.printReport();
+            }
 
-            IndexWriter writer = new IndexWriter(dir, iwc);
-            indexDocs(writer, docDir);
+            // Merging down to a few segments maximizes search performance, but is
+            // a terribly costly operation, only worth it when the index is
+            // relatively static (ie you're done adding documents to it)
+            if (forceMerge > 0) {
+                long mergeStart = System.nanoTime();
+                index.forceMerge(forceMerge);
+                System.out.println(String.format("Force merge to %d segments: %.1f ms", forceMerge,
+                        (System.nanoTime() - mergeStart) / 1e6));
+            }
 
-            // NOTE: if you want to maximize search performance,
-            // you can optionally call forceMerge here. This can be
-            // a terribly costly operation, so generally it's only
-            // worth it when your index is relatively static (ie
-            // you're done adding documents to it):
-            //
-            // writer.forceMerge(1);
+            if (committer != null) {
+                committer.shutdown();
+                committer.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            long closeStart = System.nanoTime();
+            index.close();
+            System.out.println(String.format("Final commit: %.1f ms", (System.nanoTime() - closeStart) / 1e6));
+            for (int i = 0; i < timings.length; i++) {
+                if (shards > 0) {
+                    System.out.println("Shard " + i + ":");
+                }
+                timings[i].printReport();
+            }
+
+            if (metricsDumper != null) {
+                metricsDumper.shutdown();
+            }
+            System.out.print(Metrics.GLOBAL.summary());
+            System.out.println(String.format("%d documents, %.1f docs/s", DOCUMENTS.get(),
+                    DOCUMENTS.get() / ((System.nanoTime() - startNanos) / 1e9)));
+            if (metricsFile != null) {
+                Metrics.GLOBAL.dump(Paths.get(metricsFile));
+            }
 
-            writer.close();
+            System.out.println(StemCache.ANALYSIS.stats());
+            if (stemCacheDump != null) {
+                // frequency list of the words seen, to preload the next runs
+                StemCache.ANALYSIS.dump(Paths.get(stemCacheDump));
+            }
 
             Date end = new Date();
             System.out.println(end.getTime() - start.getTime() + " total milliseconds");
@@ -130,80 +315,161 @@ public class IndexFiles {
         } catch (IOException e) {
             System.out.println(" caught a " + e.getClass() +
                     "\n with message: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println(" indexing was interrupted");
         }
     }
 
     /**
-     * Parse an XML document and search for relevant fields, then add the fields contents for indexing
-     * @param doc Document object
-     * @param xmlDoc The XML tree for the given document
+     * Configuration of a writer for the kind of run, see {@link IndexProfile}.
+     * Without a profile the Lucene defaults are kept, but for the given
+     * overrides.
+     *
+     * @param create       True to replace the index, false to add to it
+     * @param profile      Settings for the kind of run, or null
+     * @param ramBufferMB  RAM buffer, or 0 for the one of the profile or Lucene
+     * @param mergeThreads Merge threads, or -1 for the ones of the profile or Lucene
+     * @param timings      Receives the flush and merge timings of the writer
+     * @return The configuration
      */
-    static void parseXMLDoc(Document doc, org.w3c.dom.Document xmlDoc) {
-        // Add the contents of the file to a field named "contents". Specify a Reader,
-        // so that the text of the file is tokenized and indexed, but not stored.
-        // Note that FileReader expects the file to be in UTF-8 encoding.
-        // If that's not the case searching for special characters will fail.
-        Element xmlElement = xmlDoc.getDocumentElement();
-
-        parseXMLTagText(doc, xmlElement, "dc:title", "title", Field.Store.YES);
-        parseXMLTagString(doc, xmlElement, "dc:subject", "subject", Field.Store.YES);
-        // parseXMLTagString(doc, xmlElement, "dc:language", "language",
-        // Field.Store.YES);
-        parseXMLTagText(doc, xmlElement, "dc:description", "description", Field.Store.YES);
-        parseXMLTagText(doc, xmlElement, "dc:creator", "creator", Field.Store.YES);
-        parseXMLTagText(doc, xmlElement, "dc:contributor", "contributor", Field.Store.YES);
-        parseXMLTagText(doc, xmlElement, "dc:publisher", "publisher", Field.Store.YES);
-        parseXMLTagString(doc, xmlElement, "dc:date", "date", Field.Store.YES);
-        parseXMLTagString(doc, xmlElement, "dc:type", "type", Field.Store.YES);
+    private static IndexWriterConfig newConfig(boolean create, IndexProfile profile, double ramBufferMB,
+            int mergeThreads, IndexTimings timings) {
+        Analyzer analyzer = new SpanishAnalyzer2();
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+
+        if (create) {
+            // Create a new index in the directory, removing any
+            // previously indexed documents:
+            iwc.setOpenMode(OpenMode.CREATE);
+        } else {
+            // Add new documents to an existing index:
+            iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        }
+
+        if (profile != null) {
+            profile.apply(iwc, ramBufferMB, mergeThreads, timings.mergeScheduler());
+        } else {
+            if (ramBufferMB > 0) {
+                iwc.setRAMBufferSizeMB(ramBufferMB);
+            }
+            if (mergeThreads > 0) {
+                timings.mergeScheduler().setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+            }
+            iwc.setMergeScheduler(timings.mergeScheduler());
+        }
+        iwc.setInfoStream(timings);
+        return iwc;
     }
 
     /**
-     * Parse a certain field and add contents for indexing
-     * @param doc Document object
-     * @param xmlElement Root of the XML document
-     * @param fieldXML Name of the field of the XML
-     * @param fieldName name of the field that you want to store
-     * @param store Parameters that indicate if you want to store the element as is
+     * Parse an XML file in a single streaming pass and search for relevant fields, then
+     * hand every record it contains to the handler with the path and modification date
+     * fields added
+     * @param file The XML file, holding one or several records
+     * @param hash Content hash of the file to store with its records, may be null
+     * @param parser Streaming parser for the Dublin Core elements
+     * @param handler Receiver for the records, e.g. to add them to the index
+     * @return Number of records found, -1 if the file can't be opened or is not valid XML
+     * @throws IOException If the handler fails
      */
-    private static void parseXMLTagString(Document doc, Element xmlElement, String fieldXML, String fieldName,
-            Field.Store store) {
-        NodeList list = xmlElement.getElementsByTagName(fieldXML);
+    static int parseXMLDoc(File file, String hash, DublinCoreParser parser,
+            DublinCoreParser.RecordHandler handler) throws IOException {
+        FileInputStream fis;
+        try {
+            fis = new FileInputStream(file);
+        } catch (FileNotFoundException fnfe) {
+            // at least on windows, some temporary files raise this exception with an
+            // "access denied" message
+            // checking if the file can be read doesn't help
+            return -1;
+        }
 
-        for (int i = 0; i < list.getLength(); i++) {
-            doc.add(new StringField(fieldName, list.item(i).getTextContent(), store));
+        // a larger buffer than the default for multi-record dumps
+        try (InputStream in = new BufferedInputStream(fis, 1 << 16)) {
+            return parser.parse(in, withSourceFields(file, hash, handler));
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+            return -1;
         }
     }
 
     /**
-     * Parse a certain field and add contents for indexing
-     * @param doc Document object
-     * @param xmlElement Root of the XML document
-     * @param fieldXML Name of the field of the XML
-     * @param fieldName name of the field that you want to store
-     * @param store Parameters that indicate if you want to store the element as is
+     * Parse a file with any of the supported formats: XML, or a record per line
+     * in JSONL or TSV (see {@link BulkRecordReader})
+     * @param file The file, holding one or several records
+     * @param hash Content hash of the file to store with its records, may be null
+     * @param parser Field mapping for the Dublin Core elements
+     * @param handler Receiver for the records, e.g. to add them to the index
+     * @return Number of records found, -1 if the file can't be opened or is not valid XML
+     * @throws IOException If the file can't be read or the handler fails
      */
-    private static void parseXMLTagText(Document doc, Element xmlElement, String fieldXML, String fieldName,
-            Field.Store store) {
-        NodeList list = xmlElement.getElementsByTagName(fieldXML);
-
-        for (int i = 0; i < list.getLength(); i++) {
-            doc.add(new TextField(fieldName, list.item(i).getTextContent(), store));
+    static int parseFile(File file, String hash, DublinCoreParser parser,
+            DublinCoreParser.RecordHandler handler) throws IOException {
+        if (!BulkRecordReader.isBulkFile(file)) {
+            return parseXMLDoc(file, hash, parser, handler);
+        }
+        try {
+            return BulkRecordReader.read(file, parser, withSourceFields(file, hash, handler));
+        } catch (FileNotFoundException fnfe) {
+            return -1;
         }
     }
 
+    /**
+     * Wraps a handler to add the fields identifying where each record came from
+     * @param file The source file
+     * @param hash Content hash of the file, may be null
+     * @param handler The handler to wrap
+     * @return A handler adding the path, file, modified and hash fields
+     */
+    static DublinCoreParser.RecordHandler withSourceFields(File file, String hash,
+            DublinCoreParser.RecordHandler handler) {
+        final String filePath = file.getPath();
+        final long lastModified = file.lastModified();
+
+        return (doc, recordIndex) -> {
+            // Add the path of the file as a field named "path". Use a
+            // field that is indexed (i.e. searchable), but don't tokenize
+            // the field into separate words and don't index term frequency
+            // or positional information. Files holding several records get
+            // a "#n" suffix from the second record on, to keep paths unique:
+            String path = recordIndex == 0 ? filePath : filePath + "#" + recordIndex;
+            doc.add(new StringField("path", path, Field.Store.YES));
+            // Also as doc values, so that result lists can read it column-wise
+            // without loading the stored document
+            doc.add(new BinaryDocValuesField("path", new BytesRef(path)));
+            // The source file, shared by all of its records, to find them again
+            // when the file changes or is removed
+            doc.add(new StringField("file", filePath, Field.Store.YES));
+
+            // Add the last modified date of the file a field named "modified".
+            // Use a StoredField to return later its value as a response to a query.
+            // This indexes to milli-second resolution, which
+            // is often too fine. You could instead create a number based on
+            // year/month/day/hour/minutes/seconds, down the resolution you require.
+            // For example the long value 2011021714 would mean
+            // February 17, 2011, 2-3 PM.
+            doc.add(new StoredField("modified", lastModified));
+            if (hash != null) {
+                doc.add(new StoredField("hash", hash));
+            }
+
+            handler.record(doc, recordIndex);
+        };
+    }
+
     /**
      * Indexes the given file using the given writer, or if a directory is given,
      * recurses over files and directories found under the given directory.
      * 
-     * NOTE: This method indexes one document per input file. This is slow. For good
-     * throughput, put multiple documents into your input file(s). An example of
-     * this is
-     * in the benchmark module, which can create "line doc" files, one document per
-     * line,
-     * using the
+     * NOTE: Opening one file per document is slow. For good throughput, put
+     * multiple documents into your input file(s): XML files with several
+     * records, or JSONL/TSV files with a record per line (see
+     * {@link BulkRecordReader}), such as the "line doc" files written by the
      * <a href=
      * "../../../../../contrib-benchmark/org/apache/lucene/benchmark/byTask/tasks/WriteLineDocTask.html"
-     * >WriteLineDocTask</a>.
+     * >WriteLineDocTask</a> of the benchmark module.
      * 
      * @param writer Writer to the index where the given file/dir info will be
      *               stored
@@ -213,6 +479,27 @@ public class IndexFiles {
      */
     static void indexDocs(IndexWriter writer, File file)
             throws IOException {
+        indexDocs(writer, file, null);
+    }
+
+    /**
+     * Same as {@link #indexDocs(IndexWriter, File)}, but skipping the files that
+     * did not change since they were indexed.
+     *
+     * @param writer   Writer to the index where the given file/dir info will be
+     *                 stored
+     * @param file     The file to index, or the directory to recurse into to find
+     *                 files to index
+     * @param manifest Files already in the index, or null to index everything
+     * @throws IOException If there is a low-level I/O error
+     */
+    static void indexDocs(IndexWriter writer, File file, IndexManifest manifest)
+            throws IOException {
+        indexDocs(writer, file, new DublinCoreParser(), manifest);
+    }
+
+    private static void indexDocs(IndexWriter writer, File file, DublinCoreParser parser,
+            IndexManifest manifest) throws IOException {
         // do not try to index files that cannot be read
         if (file.canRead()) {
             if (file.isDirectory()) {
@@ -220,65 +507,52 @@ public class IndexFiles {
                 // an IO error could occur
                 if (files != null) {
                     for (int i = 0; i < files.length; i++) {
-                        indexDocs(writer, new File(file, files[i]));
+                        indexDocs(writer, new File(file, files[i]), parser, manifest);
                     }
                 }
             } else {
-
-                FileInputStream fis;
-                try {
-                    fis = new FileInputStream(file);
-                } catch (FileNotFoundException fnfe) {
-                    // at least on windows, some temporary files raise this exception with an
-                    // "access denied" message
-                    // checking if the file can be read doesn't help
-                    return;
-                }
-
                 try {
-
-                    // make a new, empty document
-                    Document doc = new Document();
-
-                    DocumentBuilderFactory factoryInstance = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder dcb = factoryInstance.newDocumentBuilder();
-                    org.w3c.dom.Document xmlDoc = dcb.parse(file);
-
-                    // Add the path of the file as a field named "path". Use a
-                    // field that is indexed (i.e. searchable), but don't tokenize
-                    // the field into separate words and don't index term frequency
-                    // or positional information:
-                    Field pathField = new StringField("path", file.getPath(), Field.Store.YES);
-                    doc.add(pathField);
-
-                    // Add the last modified date of the file a field named "modified".
-                    // Use a StoredField to return later its value as a response to a query.
-                    // This indexes to milli-second resolution, which
-                    // is often too fine. You could instead create a number based on
-                    // year/month/day/hour/minutes/seconds, down the resolution you require.
-                    // For example the long value 2011021714 would mean
-                    // February 17, 2011, 2-3 PM.
-                    doc.add(new StoredField("modified", file.lastModified()));
-
-                    parseXMLDoc(doc, xmlDoc);
-
-                    if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
-                        // New index, so we just add the document (no old document can be there):
-                        System.out.println("adding " + file);
-                        writer.addDocument(doc);
-                    } else {
-                        // Existing index (an old copy of this document may have been indexed) so
-                        // we use updateDocument instead to replace the old one matching the exact
-                        // path, if present:
-                        System.out.println("updating " + file);
-                        writer.updateDocument(new Term("path", file.getPath()), doc);
+                    String hash = null;
+                    if (manifest != null) {
+                        hash = manifest.prepare(writer, file);
+                        if (hash == null) {
+                            return;
+                        }
                     }
+                    parseFile(file, hash, parser, (doc, recordIndex) -> writeDocument(writer, doc));
                 } catch (Exception e) {
                     e.printStackTrace();
-                } finally {
-                    fis.close();
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Adds a document to the index, or replaces the one with the same path when
+     * updating an existing index. Safe to call from several threads at once.
+     *
+     * @param writer Writer to the index
+     * @param doc    The document to write, with its "path" field set, facet
+     *               fields are turned into their indexed form here
+     * @throws IOException If there is a low-level I/O error
+     */
+    static void writeDocument(IndexWriter writer, Document doc) throws IOException {
+        long start = System.nanoTime();
+        String path = doc.get("path");
+        // doc values and drill-down terms of the type, subject, publisher and year facets
+        doc = DublinCoreFacets.build(doc);
+        if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
+            // New index, so we just add the document (no old document can be there):
+            System.out.println("adding " + path);
+            writer.addDocument(doc);
+        } else {
+            // Existing index (an old copy of this document may have been indexed) so
+            // we use updateDocument instead to replace the old one matching the exact
+            // path, if present:
+            System.out.println("updating " + path);
+            writer.updateDocument(new Term("path", path), doc);
+        }
+        ADD_DOCUMENT_TIME.recordSince(start);
+        DOCUMENTS.inc();
+    }
+}
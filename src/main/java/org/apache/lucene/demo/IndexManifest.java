@@ -0,0 +1,235 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Snapshot of the source files already present in an index, used to reindex
+ * only what changed.
+ * <p>
+ * Every indexed record stores the file it came from ("file"), the
+ * modification time of that file ("modified") and, when known, a SHA-256 hash
+ * of its content ("hash"). A file is skipped when its modification time is the
+ * same as the stored one, or when it was touched but its hash did not change.
+ * The new modification time of a touched file is kept in the user data of the
+ * commit (see {@link #save(IndexWriter)}) rather than by rewriting its records,
+ * so the next runs skip it without hashing it again. Files that are in the
+ * index but were not seen by the walk are deleted.
+ * <p>
+ * {@link #prepare(IndexWriter, File)} may be called from several threads at
+ * once.
+ */
+final class IndexManifest {
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList("file", "path", "modified", "hash"));
+
+    /** Prefix of the commit user data holding the modification time of a touched file, followed by its path. */
+    static final String MODIFIED_PREFIX = "modified:";
+
+    private final Map<String, Entry> entries;
+    /** Modification times newer than the ones stored in the records, by file. */
+    private final Map<String, Long> touchedTimes = new ConcurrentHashMap<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger added = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger touched = new AtomicInteger();
+    private int deleted;
+
+    private IndexManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the source files of every live document in the index.
+     *
+     * @param dir Directory holding the index, which may not exist yet
+     * @return The manifest, empty for a new index
+     * @throws IOException If the index can't be read
+     */
+    static IndexManifest load(Directory dir) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        if (!DirectoryReader.indexExists(dir)) {
+            return new IndexManifest(entries);
+        }
+
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            for (LeafReaderContext ctx : reader.leaves()) {
+                LeafReader leaf = ctx.reader();
+                Bits liveDocs = leaf.getLiveDocs();
+                for (int i = 0; i < leaf.maxDoc(); i++) {
+                    if (liveDocs != null && !liveDocs.get(i)) {
+                        continue;
+                    }
+                    Document doc = leaf.document(i, FIELDS);
+                    // documents indexed before the "file" field existed are keyed by path
+                    String file = doc.get("file") != null ? doc.get("file") : doc.get("path");
+                    if (file == null) {
+                        continue;
+                    }
+                    IndexableField modified = doc.getField("modified");
+                    entries.put(file, new Entry(
+                            modified != null ? modified.numericValue().longValue() : -1L,
+                            doc.get("hash")));
+                }
+            }
+
+            IndexManifest manifest = new IndexManifest(entries);
+            for (Map.Entry<String, String> data : reader.getIndexCommit().getUserData().entrySet()) {
+                String file = data.getKey().startsWith(MODIFIED_PREFIX)
+                        ? data.getKey().substring(MODIFIED_PREFIX.length()) : null;
+                Entry entry = file != null ? entries.get(file) : null;
+                if (entry != null) {
+                    long modified = Long.parseLong(data.getValue());
+                    entries.put(file, new Entry(modified, entry.hash));
+                    manifest.touchedTimes.put(file, modified);
+                }
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * Decides whether a file has to be (re)indexed and records it as seen. If it
+     * has, every document previously built from it is deleted so that its new
+     * records can be added.
+     *
+     * @param writer Writer to the index
+     * @param file   The source file
+     * @return The content hash to store with the new documents, or null if the
+     *         file has the stored modification time and can be skipped
+     * @throws IOException If the file can't be read or there is a low-level I/O
+     *                     error in the writer
+     */
+    String prepare(IndexWriter writer, File file) throws IOException {
+        String path = file.getPath();
+        seen.add(path);
+
+        long modified = file.lastModified();
+        Entry entry = entries.get(path);
+        if (entry != null && entry.modified == modified) {
+            unchanged.incrementAndGet();
+            return null;
+        }
+
+        String hash = hash(file);
+        if (entry == null) {
+            added.incrementAndGet();
+            return hash;
+        }
+        if (hash.equals(entry.hash)) {
+            // the content is the same: keep the records, only remember the new
+            // time so the next runs don't hash the file again
+            touched.incrementAndGet();
+            touchedTimes.put(path, modified);
+            return null;
+        }
+        updated.incrementAndGet();
+        // the new records store the new time
+        touchedTimes.remove(path);
+        writer.deleteDocuments(new Term("file", path), new Term("path", path));
+        return hash;
+    }
+
+    /**
+     * Deletes the documents whose source file under the given root was not seen
+     * during the walk, i.e. was removed since the last run.
+     *
+     * @param writer Writer to the index
+     * @param root   The directory that was walked
+     * @throws IOException If there is a low-level I/O error
+     */
+    void deleteMissing(IndexWriter writer, File root) throws IOException {
+        // compared by path elements, so that docs2/ is not under docs/
+        Path prefix = root.toPath();
+        for (String path : entries.keySet()) {
+            if (Paths.get(path).startsWith(prefix) && !seen.contains(path)) {
+                System.out.println("deleting " + path);
+                writer.deleteDocuments(new Term("file", path), new Term("path", path));
+                touchedTimes.remove(path);
+                deleted++;
+            }
+        }
+    }
+
+    /**
+     * Sets the modification times of the touched files as the user data of the
+     * next commit of the writer, where {@link #load(Directory)} finds them.
+     *
+     * @param writer Writer to the index
+     */
+    void save(IndexWriter writer) {
+        Map<String, String> data = new HashMap<>();
+        for (Map.Entry<String, Long> touchedTime : touchedTimes.entrySet()) {
+            data.put(MODIFIED_PREFIX + touchedTime.getKey(), Long.toString(touchedTime.getValue()));
+        }
+        writer.setLiveCommitData(data.entrySet());
+    }
+
+    /** Prints how many files were added, updated, skipped and deleted. */
+    void printReport() {
+        System.out.println(added.get() + " added, " + updated.get() + " updated, "
+                + unchanged.get() + " unchanged, " + touched.get() + " touched but unchanged, "
+                + deleted + " deleted files");
+    }
+
+    /** Hex-encoded SHA-256 of the file content. */
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /** What the index knows about a source file. */
+    private static final class Entry {
+        final long modified;
+        final String hash;
+
+        Entry(long modified, String hash) {
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LiveIndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeScheduler;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * Named {@link IndexWriterConfig} settings for the usual ways of indexing.
+ * <ul>
+ * <li>{@code bulk}: a first load of many documents. Large RAM buffer, wide
+ * merge tiers so fewer merges run while adding, several merge threads and no
+ * compound files.</li>
+ * <li>{@code incremental}: small updates to a live index. Small RAM buffer so
+ * changes are flushed soon, default tiers and compound files to keep the
+ * number of open files low.</li>
+ * <li>{@code read}: an index that won't change. Like {@code bulk}, then merged
+ * down to a single segment for the fastest searches.</li>
+ * </ul>
+ * Any setting can be overridden from the command line of {@link IndexFiles}.
+ */
+enum IndexProfile {
+
+    BULK("bulk", 256, 20, 20, false, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 0),
+    INCREMENTAL("incremental", 32, 10, 10, true, 0, 0),
+    READ_OPTIMIZED("read", 256, 20, 20, false, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 1);
+
+    final String name;
+    final double ramBufferMB;
+    final double segmentsPerTier;
+    final int maxMergeAtOnce;
+    final boolean compoundFiles;
+    /** Concurrent merge threads, 0 to let Lucene decide. */
+    final int mergeThreads;
+    /** Number of segments to merge down to once done, 0 to not force merge. */
+    final int forceMergeSegments;
+
+    IndexProfile(String name, double ramBufferMB, double segmentsPerTier, int maxMergeAtOnce,
+            boolean compoundFiles, int mergeThreads, int forceMergeSegments) {
+        this.name = name;
+        this.ramBufferMB = ramBufferMB;
+        this.segmentsPerTier = segmentsPerTier;
+        this.maxMergeAtOnce = maxMergeAtOnce;
+        this.compoundFiles = compoundFiles;
+        this.mergeThreads = mergeThreads;
+        this.forceMergeSegments = forceMergeSegments;
+    }
+
+    /**
+     * @param name Name of a profile as given on the command line
+     * @return The profile
+     * @throws IllegalArgumentException If there is no such profile
+     */
+    static IndexProfile forName(String name) {
+        for (IndexProfile profile : values()) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown profile '" + name + "', expected bulk, incremental or read");
+    }
+
+    /**
+     * Applies the profile to a writer configuration.
+     *
+     * @param iwc          The configuration
+     * @param ramBufferMB  RAM buffer, or 0 for the one of the profile
+     * @param mergeThreads Merge threads, or -1 for the ones of the profile
+     * @param scheduler    Merge scheduler to configure and install
+     * @return The configuration
+     */
+    IndexWriterConfig apply(IndexWriterConfig iwc, double ramBufferMB, int mergeThreads,
+            ConcurrentMergeScheduler scheduler) {
+        iwc.setRAMBufferSizeMB(ramBufferMB > 0 ? ramBufferMB : this.ramBufferMB);
+
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(segmentsPerTier);
+        mergePolicy.setMaxMergeAtOnce(maxMergeAtOnce);
+        // also governs the segments written by merges, not only the flushed ones
+        mergePolicy.setNoCFSRatio(compoundFiles ? TieredMergePolicy.DEFAULT_NO_CFS_RATIO : 0.0);
+        iwc.setMergePolicy(mergePolicy);
+        iwc.setUseCompoundFile(compoundFiles);
+
+        int threads = mergeThreads >= 0 ? mergeThreads : this.mergeThreads;
+        if (threads > 0) {
+            // let a few merges queue up behind the running ones before
+            // indexing threads are stalled
+            scheduler.setMaxMergesAndThreads(threads + 5, threads);
+        }
+        iwc.setMergeScheduler(scheduler);
+        return iwc;
+    }
+
+    /**
+     * @param config     Configuration of a writer, as it is being used
+     * @param forceMerge Segments the index is merged down to once done, 0 for none
+     * @return The settings actually applied, overrides included
+     */
+    static String describe(LiveIndexWriterConfig config, int forceMerge) {
+        String merges = "";
+        MergePolicy policy = config.getMergePolicy();
+        if (policy instanceof TieredMergePolicy) {
+            TieredMergePolicy tiered = (TieredMergePolicy) policy;
+            merges = String.format("%.0f segments per tier, %d merged at once, ", tiered.getSegmentsPerTier(),
+                    tiered.getMaxMergeAtOnce());
+        }
+        String threads = "auto";
+        MergeScheduler scheduler = config.getMergeScheduler();
+        if (scheduler instanceof ConcurrentMergeScheduler
+                && ((ConcurrentMergeScheduler) scheduler).getMaxThreadCount() > 0) {
+            threads = Integer.toString(((ConcurrentMergeScheduler) scheduler).getMaxThreadCount());
+        }
+        return String.format("RAM buffer %.1f MB, %s%s merge threads, compound files %s, force merge to %s",
+                config.getRAMBufferSizeMB(), merges, threads, config.getUseCompoundFile() ? "on" : "off",
+                forceMerge > 0 ? Integer.toString(forceMerge) : "none");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (RAM buffer %.0f MB, %.0f segments per tier, %d merged at once, "
+                + "%s merge threads, compound files %s, force merge to %s)", name, ramBufferMB, segmentsPerTier,
+                maxMergeAtOnce, mergeThreads > 0 ? Integer.toString(mergeThreads) : "auto",
+                compoundFiles ? "on" : "off", forceMergeSegments > 0 ? Integer.toString(forceMergeSegments) : "none");
+    }
+}
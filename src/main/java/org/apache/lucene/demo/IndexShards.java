@@ -0,0 +1,298 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Writers of an index, either a single one or one per shard.
+ * <p>
+ * A sharded index is a folder holding independent Lucene indexes in the
+ * subfolders {@code shard-0}, {@code shard-1}, ... Every record goes to the
+ * shard given by the hash of its path, so a record always lands on the same
+ * shard and updates replace it there. The shards have their own writer, RAM
+ * buffer and merges, and are committed, merged and closed in parallel, so a
+ * rebuild is not bound by a single writer. They are searched together with
+ * {@link #openReader(Path, IndexDirectory, Set)} and
+ * {@link ShardedIndexSearcher}.
+ */
+final class IndexShards implements Closeable {
+
+    /** Name of the folder of a shard, followed by its number. */
+    static final String PREFIX = "shard-";
+
+    private final Directory[] dirs;
+    private final IndexWriter[] writers;
+
+    private IndexShards(Directory[] dirs, IndexWriter[] writers) {
+        this.dirs = dirs;
+        this.writers = writers;
+    }
+
+    /**
+     * Opens the writers of an index.
+     *
+     * @param index  Folder of the index
+     * @param shards Number of shards, 0 to write a single unsharded index
+     * @param mode   How the files are accessed
+     * @param config Configuration of the writer of every shard, by number
+     * @return The writers
+     * @throws IOException If an index can't be opened
+     */
+    static IndexShards open(Path index, int shards, IndexDirectory mode, IntFunction<IndexWriterConfig> config)
+            throws IOException {
+        int count = Math.max(1, shards);
+        Directory[] dirs = new Directory[count];
+        IndexWriter[] writers = new IndexWriter[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                // nothing to preload, the writer reads back little of what it writes
+                dirs[i] = mode.open(shards > 0 ? shardPath(index, i) : index, IndexDirectory.noPreload());
+                writers[i] = new IndexWriter(dirs[i], config.apply(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < count; i++) {
+                closeQuietly(writers[i]);
+                closeQuietly(dirs[i]);
+            }
+            throw e;
+        }
+        return new IndexShards(dirs, writers);
+    }
+
+    /**
+     * @param index Folder of an index
+     * @param shard Number of a shard
+     * @return Folder of the shard
+     */
+    static Path shardPath(Path index, int shard) {
+        return index.resolve(PREFIX + shard);
+    }
+
+    /**
+     * @param index Folder of an index
+     * @return Number of shards of the index, 0 if it is not sharded
+     */
+    static int count(Path index) {
+        int count = 0;
+        while (Files.isDirectory(shardPath(index, count))) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param index Folder of an index
+     * @return True if the folder itself holds an index, i.e. it is not sharded
+     * @throws IOException If the folder can't be read
+     */
+    static boolean hasUnshardedIndex(Path index) throws IOException {
+        if (!Files.isDirectory(index)) {
+            return false;
+        }
+        try (Directory dir = FSDirectory.open(index)) {
+            return DirectoryReader.indexExists(dir);
+        }
+    }
+
+    /**
+     * @param path   Path of a record
+     * @param shards Number of shards
+     * @return The shard of the record
+     */
+    static int shardOf(String path, int shards) {
+        // murmur3 rather than String.hashCode, which spreads similar paths badly
+        return Math.floorMod(StringHelper.murmurhash3_x86_32(new BytesRef(path), 0), shards);
+    }
+
+    /**
+     * Opens an index for searching. A sharded index is read as one
+     * {@link ShardedReader} over its shards, so the term and collection
+     * statistics, and with them the scores, are those of the whole index.
+     *
+     * @param index   Folder of the index
+     * @param mode    How the files are accessed
+     * @param preload Extensions of the files to load when opened
+     * @return The reader, a {@link DirectoryReader} if the index is not sharded
+     * @throws IOException If the index can't be opened
+     */
+    static IndexReader openReader(Path index, IndexDirectory mode, Set<String> preload) throws IOException {
+        int shards = count(index);
+        if (shards == 0) {
+            return DirectoryReader.open(mode.open(index, preload));
+        }
+        DirectoryReader[] readers = new DirectoryReader[shards];
+        try {
+            for (int i = 0; i < shards; i++) {
+                readers[i] = DirectoryReader.open(mode.open(shardPath(index, i), preload));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (DirectoryReader reader : readers) {
+                closeQuietly(reader);
+            }
+            throw e;
+        }
+        ShardedReader reader = new ShardedReader(readers);
+        for (DirectoryReader shard : readers) {
+            // owned by the multi reader, which also lets a refresh share them
+            shard.decRef();
+        }
+        return reader;
+    }
+
+    /** @return Number of writers, 1 for an unsharded index */
+    int size() {
+        return writers.length;
+    }
+
+    /**
+     * @param shard Number of a shard
+     * @return Its writer
+     */
+    IndexWriter writer(int shard) {
+        return writers[shard];
+    }
+
+    /**
+     * @param path Path of a record
+     * @return The writer of the shard the record belongs to
+     */
+    IndexWriter writerFor(String path) {
+        return writers.length == 1 ? writers[0] : writers[shardOf(path, writers.length)];
+    }
+
+    /** @return False if any writer was closed by an unrecoverable error */
+    boolean isHealthy() {
+        for (IndexWriter writer : writers) {
+            if (!writer.isOpen() || writer.getTragicException() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param failure What a writer threw once it was no longer healthy
+     * @return The error that closed a writer, as an {@link IOException}, or
+     *         the failure itself if no writer recorded one
+     */
+    IOException tragicException(Exception failure) {
+        for (IndexWriter writer : writers) {
+            Throwable tragic = writer.getTragicException();
+            if (tragic instanceof IOException) {
+                return (IOException) tragic;
+            } else if (tragic != null) {
+                return new IOException("index writer closed", tragic);
+            }
+        }
+        return failure instanceof IOException ? (IOException) failure : new IOException("index writer closed", failure);
+    }
+
+    /**
+     * Commits every shard, in parallel.
+     *
+     * @throws IOException If a commit fails
+     */
+    void commit() throws IOException {
+        forEach(IndexWriter::commit);
+    }
+
+    /**
+     * Merges every shard down to a number of segments, in parallel.
+     *
+     * @param segments Maximum number of segments per shard
+     * @throws IOException If a merge fails
+     */
+    void forceMerge(int segments) throws IOException {
+        forEach(writer -> writer.forceMerge(segments));
+    }
+
+    /** Commits and closes every shard, in parallel. */
+    @Override
+    public void close() throws IOException {
+        try {
+            forEach(IndexWriter::close);
+        } finally {
+            for (Directory dir : dirs) {
+                closeQuietly(dir);
+            }
+        }
+    }
+
+    /** Work done on the writer of a shard. */
+    @FunctionalInterface
+    private interface ShardTask {
+        void run(IndexWriter writer) throws IOException;
+    }
+
+    /** Runs a task on every writer, each on its own thread, and waits for all of them. */
+    private void forEach(ShardTask task) throws IOException {
+        if (writers.length == 1) {
+            task.run(writers[0]);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(writers.length);
+        try {
+            List<Future<Void>> results = new ArrayList<>(writers.length);
+            for (IndexWriter writer : writers) {
+                results.add(pool.submit(() -> {
+                    task.run(writer);
+                    return null;
+                }));
+            }
+            // wait for all of them even if one fails, then report the first failure
+            Throwable failure = null;
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new RuntimeException(failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the shards");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // already failing, the first error is the one reported
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.util.InfoStream;
+
+import java.io.IOException;
+
+/**
+ * Collects the time spent flushing segments and merging them while indexing.
+ * <p>
+ * Flushes are timed from the "flush time" messages the writer sends to its
+ * {@link InfoStream}, which is the only place they are reported. Only that
+ * component is enabled, so the writer does not build its other messages.
+ * Merges are timed by the {@link ConcurrentMergeScheduler} returned by
+ * {@link #mergeScheduler()}.
+ */
+final class IndexTimings extends InfoStream {
+
+    private static final String FLUSH_COMPONENT = "DWPT";
+    private static final String FLUSH_TIME = "flush time ";
+
+    private long flushes;
+    private double flushMillis;
+    private double maxFlushMillis;
+
+    private long merges;
+    private long mergedDocs;
+    private long mergeNanos;
+    private long maxMergeNanos;
+
+    private final ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler() {
+        @Override
+        protected void doMerge(MergeSource mergeSource, MergePolicy.OneMerge merge) throws IOException {
+            long start = System.nanoTime();
+            super.doMerge(mergeSource, merge);
+            int docs = 0;
+            for (SegmentCommitInfo segment : merge.segments) {
+                docs += segment.info.maxDoc();
+            }
+            mergeDone(docs, System.nanoTime() - start);
+        }
+    };
+
+    /** @return A merge scheduler reporting the merges it runs to this object */
+    ConcurrentMergeScheduler mergeScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public boolean isEnabled(String component) {
+        return FLUSH_COMPONENT.equals(component);
+    }
+
+    @Override
+    public void message(String component, String message) {
+        // e.g. "flush time 12.345 msec"
+        if (FLUSH_COMPONENT.equals(component) && message.startsWith(FLUSH_TIME)) {
+            int end = message.indexOf(' ', FLUSH_TIME.length());
+            try {
+                double millis = Double.parseDouble(message.substring(FLUSH_TIME.length(),
+                        end < 0 ? message.length() : end));
+                flushDone(millis);
+            } catch (NumberFormatException e) {
+                // a different message format, just don't count it
+            }
+        }
+    }
+
+    private synchronized void flushDone(double millis) {
+        flushes++;
+        flushMillis += millis;
+        maxFlushMillis = Math.max(maxFlushMillis, millis);
+    }
+
+    private synchronized void mergeDone(int docs, long nanos) {
+        merges++;
+        mergedDocs += docs;
+        mergeNanos += nanos;
+        maxMergeNanos = Math.max(maxMergeNanos, nanos);
+    }
+
+    /** Prints the flush and merge counts and timings. */
+    synchronized void printReport() {
+        System.out.println(String.format("Flushes: %d in %.1f ms (mean %.1f ms, max %.1f ms)",
+                flushes, flushMillis, flushes > 0 ? flushMillis / flushes : 0.0, maxFlushMillis));
+        System.out.println(String.format("Merges: %d of %d docs in %.1f ms (mean %.1f ms, max %.1f ms), %d threads",
+                merges, mergedDocs, mergeNanos / 1e6, merges > 0 ? mergeNanos / 1e6 / merges : 0.0,
+                maxMergeNanos / 1e6, scheduler.getMaxThreadCount()));
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,154 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a batch of information needs in parallel.
+ * <p>
+ * Every need is turned into a query with
+ * {@link SearchFiles#generateQueryFromInfoNeed(String)} and searched on a pool
+ * of threads sharing a single {@link IndexSearcher}. The results are buffered
+ * per need and written in the original identifier order, so the output is the
+ * same as with the sequential {@code -infoNeeds} mode. Only a window of needs
+ * is in flight at a time, so the buffered hits don't grow with the batch.
+ */
+final class InfoNeedBatchRunner {
+
+    /** Needs submitted ahead per thread, so a slow need doesn't leave the others idle. */
+    private static final int WINDOW_PER_THREAD = 2;
+
+    private final IndexSearcher searcher;
+    private final int threads;
+    private final int maxHits;
+
+    /**
+     * @param searcher Searcher shared by all the threads
+     * @param threads  Number of needs processed at the same time
+     * @param maxHits  Maximum number of hits written per need, 0 or less for all
+     */
+    InfoNeedBatchRunner(IndexSearcher searcher, int threads, int maxHits) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be > 0, got " + threads);
+        }
+        this.searcher = searcher;
+        this.threads = threads;
+        this.maxHits = maxHits;
+    }
+
+    /**
+     * Builds and runs the query of every need, writing their hits in order and
+     * printing the latency of each one.
+     *
+     * @param needs Text of the information needs by identifier, in output order
+     * @param out   Destination of the "id\tpath" lines
+     * @throws IOException          If a query can't be built or the output fails
+     * @throws InterruptedException If the calling thread is interrupted
+     */
+    void run(Map<String, String> needs, Writer out) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<Result>> window = new ArrayDeque<>(WINDOW_PER_THREAD * threads);
+        Iterator<Map.Entry<String, String>> pending = needs.entrySet().iterator();
+        try {
+            long[] latencies = new long[needs.size()];
+            int n = 0;
+            while (true) {
+                // only a few needs ahead of the one being written hold their hits
+                while (pending.hasNext() && window.size() < WINDOW_PER_THREAD * threads) {
+                    Map.Entry<String, String> need = pending.next();
+                    window.add(pool.submit(() -> execute(need.getKey(), need.getValue())));
+                }
+                if (window.isEmpty()) {
+                    break;
+                }
+                Result result;
+                try {
+                    result = window.poll().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                out.write(result.lines);
+                latencies[n++] = result.buildNanos + result.searchNanos;
+                System.out.println(String.format("%s: %d total matching documents, query %.1f ms, search %.1f ms",
+                        result.id, result.hits, result.buildNanos / 1e6, result.searchNanos / 1e6));
+            }
+            out.flush();
+            printSummary(latencies, System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result execute(String id, String text) throws IOException {
+        long t0 = System.nanoTime();
+        Query query;
+        try {
+            query = SearchFiles.generateQueryFromInfoNeed(text, searcher.getIndexReader());
+        } catch (org.apache.lucene.queryparser.classic.ParseException e) {
+            throw new IOException("Can't build the query for information need " + id, e);
+        }
+        long t1 = System.nanoTime();
+
+        StringWriter lines = new StringWriter();
+        int hits = SearchFiles.fullSearch(lines, searcher, query, id, maxHits);
+        long t2 = System.nanoTime();
+
+        return new Result(id, lines.toString(), hits, t1 - t0, t2 - t1);
+    }
+
+    private void printSummary(long[] latencies, long wallNanos) {
+        if (latencies.length == 0) {
+            return;
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long l : sorted) {
+            sum += l;
+        }
+        System.out.println(String.format("%d needs on %d threads in %.1f ms: mean %.1f ms, p50 %.1f ms, "
+                + "p95 %.1f ms, max %.1f ms",
+                sorted.length, threads, wallNanos / 1e6, sum / 1e6 / sorted.length,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6,
+                sorted[sorted.length - 1] / 1e6));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /** Output and timings of a single need. */
+    private static final class Result {
+        final String id;
+        final String lines;
+        final int hits;
+        final long buildNanos;
+        final long searchNanos;
+
+        Result(String id, String lines, int hits, long buildNanos, long searchNanos) {
+            this.id = id;
+            this.lines = lines;
+            this.hits = hits;
+            this.buildNanos = buildNanos;
+            this.searchNanos = searchNanos;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Version;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of the queries built for the information needs, enabled with
+ * {@code -queryCache FILE}.
+ * <p>
+ * Building a query runs the whole NLP pipeline on the text of the need, and
+ * loading the models alone takes seconds. The built queries are stored in a
+ * file by the text of their need, in the form given by {@link QueryCodec},
+ * and a later run takes them from there: only new or edited needs go through
+ * the pipeline again, and if none did the models are not even loaded.
+ * <p>
+ * The file records the versions of the models and of the query rules and
+ * analysis it was written with (see {@link #currentVersion()}). If any of
+ * them changed, all its queries are discarded. The queries are stored as
+ * built without an index, so the same file works for any index; the terms
+ * absent from the index are dropped when a query is planned for it.
+ * <p>
+ * Saving keeps only the needs used by the run, so the file follows the needs
+ * file instead of growing with every edit. Safe to use from several threads.
+ */
+final class InfoNeedQueryCache {
+
+    private static final String CODEC = "InfoNeedQueries";
+    private static final int FORMAT = 0;
+
+    private final Path file;
+    private final Map<String, byte[]> stored = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> used = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger uncacheable = new AtomicInteger();
+    private volatile boolean changed;
+    private String loadReport;
+
+    private InfoNeedQueryCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens a cache file, which doesn't need to exist yet.
+     *
+     * @param file The file
+     * @return The cache, empty if the file is missing, corrupt or was written
+     *         by other versions
+     * @throws IOException If the models can't be read to get their version
+     */
+    static InfoNeedQueryCache load(Path file) throws IOException {
+        InfoNeedQueryCache cache = new InfoNeedQueryCache(file);
+        String version = currentVersion();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            InputStreamDataInput data = new InputStreamDataInput(in);
+            CodecUtil.checkHeader(data, CODEC, FORMAT, FORMAT);
+            String fileVersion = data.readString();
+            if (!version.equals(fileVersion)) {
+                cache.loadReport = "Query cache " + file + " was built with other models or rules, rebuilding it";
+                cache.changed = true;
+                return cache;
+            }
+            int count = data.readVInt();
+            for (int i = 0; i < count; i++) {
+                String text = data.readString();
+                byte[] query = new byte[data.readVInt()];
+                data.readBytes(query, 0, query.length);
+                cache.stored.put(text, query);
+            }
+            cache.loadReport = "Query cache " + file + ": " + count + " queries loaded";
+        } catch (NoSuchFileException e) {
+            cache.loadReport = "Query cache " + file + " will be created";
+        } catch (IOException e) {
+            // a corrupt or older file is rebuilt rather than failing the run
+            cache.stored.clear();
+            cache.loadReport = "Query cache " + file + " can't be read (" + e.getMessage() + "), rebuilding it";
+        }
+        return cache;
+    }
+
+    /**
+     * @return The versions a cached query depends on: the hashes of the NLP
+     *         models, the Lucene version of the analysis and the version of
+     *         the query rules
+     * @throws IOException If the models can't be read
+     */
+    static String currentVersion() throws IOException {
+        return "models " + NlpModels.version() + ", lucene " + Version.LATEST
+                + ", rules " + SearchFiles.INFO_NEED_RULES_VERSION;
+    }
+
+    /**
+     * @param text Text of an information need
+     * @return Its query, built without an index, or null if it's not cached
+     */
+    Query get(String text) {
+        byte[] bytes = stored.get(text);
+        if (bytes != null) {
+            try {
+                Query query = QueryCodec.decode(bytes);
+                used.put(text, bytes);
+                hits.incrementAndGet();
+                return query;
+            } catch (IOException e) {
+                // corrupt entry, build the query again
+                stored.remove(text);
+                changed = true;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param text  Text of an information need
+     * @param query Its query, built without an index
+     */
+    void put(String text, Query query) {
+        byte[] bytes = QueryCodec.encode(query);
+        if (bytes == null) {
+            // built again on every run
+            uncacheable.incrementAndGet();
+            return;
+        }
+        stored.put(text, bytes);
+        used.put(text, bytes);
+        changed = true;
+    }
+
+    /**
+     * Writes the queries used since the cache was loaded, replacing the file
+     * atomically. Nothing is written if they all came from the file and no
+     * other query was in it.
+     *
+     * @throws IOException If the file can't be written
+     */
+    void save() throws IOException {
+        if (!changed && used.size() == stored.size()) {
+            return;
+        }
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                OutputStreamDataOutput data = new OutputStreamDataOutput(out);
+                CodecUtil.writeHeader(data, CODEC, FORMAT);
+                data.writeString(currentVersion());
+                data.writeVInt(used.size());
+                for (Map.Entry<String, byte[]> entry : used.entrySet()) {
+                    data.writeString(entry.getKey());
+                    data.writeVInt(entry.getValue().length);
+                    data.writeBytes(entry.getValue(), entry.getValue().length);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        changed = false;
+    }
+
+    /** @return How the file was loaded and how many queries were reused and built */
+    String stats() {
+        return loadReport + System.lineSeparator()
+                + String.format("Query cache: %d reused, %d built, %d can't be cached",
+                        hits.get(), misses.get(), uncacheable.get());
+    }
+}
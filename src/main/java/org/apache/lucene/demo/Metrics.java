@@ -0,0 +1,338 @@
+package org.apache.lucene.demo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters, gauges and latency timers of the indexing and search stages.
+ * <p>
+ * Timers keep a histogram with logarithmic buckets split in
+ * {@value #SUB_BUCKETS} linear sub-buckets, like HdrHistogram does: any
+ * latency from a nanosecond to hours is recorded with a fixed ~6% precision
+ * in a fixed array, so recording is a few atomic increments, without locks or
+ * allocation, and can stay enabled in production.
+ * <p>
+ * The metrics are written as JSON or in the Prometheus text format (e.g. for
+ * the node exporter's textfile collector), once or periodically with
+ * {@link #startDumping(Path, long)}.
+ */
+final class Metrics {
+
+    /** Metrics of the whole process. */
+    static final Metrics GLOBAL = new Metrics();
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values below this are counted exactly, one bucket each. */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name Name of the counter, e.g. {@code index_documents_total}
+     * @param help One line describing it
+     * @return The counter with that name, created on first use
+     */
+    Counter counter(String name, String help) {
+        return counters.computeIfAbsent(name, n -> new Counter(help));
+    }
+
+    /**
+     * Registers a value computed when the metrics are written, replacing any
+     * gauge with the same name.
+     *
+     * @param name  Name of the gauge
+     * @param help  One line describing it
+     * @param value Supplier of the current value
+     */
+    void gauge(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * @param name Name of the timer, in seconds like Prometheus expects, e.g.
+     *             {@code search_seconds}
+     * @param help One line describing it
+     * @return The timer with that name, created on first use
+     */
+    Timer timer(String name, String help) {
+        return timers.computeIfAbsent(name, n -> new Timer(help));
+    }
+
+    /** Monotonic counter. */
+    static final class Counter {
+        private final String help;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String help) {
+            this.help = help;
+        }
+
+        void inc() {
+            value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    private static final class Gauge {
+        final String help;
+        final DoubleSupplier value;
+
+        Gauge(String help, DoubleSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /** Latency histogram, safe to record from several threads at once. */
+    static final class Timer {
+        private final String help;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Timer(String help) {
+            this.help = help;
+        }
+
+        /** @param nanos Duration to record, negative values count as 0 */
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            sumNanos.add(nanos);
+            if (nanos > maxNanos.get()) {
+                maxNanos.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        /**
+         * Records the time elapsed since a {@link System#nanoTime()} reading.
+         *
+         * @param startNanos The reading taken when the timed work started
+         * @return The current {@link System#nanoTime()}, to time the next step
+         */
+        long recordSince(long startNanos) {
+            long now = System.nanoTime();
+            record(now - startNanos);
+            return now;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        /**
+         * @param quantile Between 0 and 1
+         * @return Upper bound in nanoseconds of the bucket holding the quantile,
+         *         0 if nothing was recorded
+         */
+        long quantileNanos(double quantile) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        static int bucket(long value) {
+            if (value < LINEAR_LIMIT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < LINEAR_LIMIT) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+            int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format. Timers
+     * are written as summaries with their quantiles in seconds.
+     *
+     * @param out Where to write
+     * @throws IOException If the writer fails
+     */
+    void writePrometheus(Writer out) throws IOException {
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            header(out, e.getKey(), e.getValue().help, "counter");
+            out.write(e.getKey() + " " + e.getValue().get() + "\n");
+        }
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            header(out, e.getKey(), e.getValue().help, "gauge");
+            out.write(e.getKey() + " " + number(e.getValue().value.getAsDouble()) + "\n");
+        }
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            String name = e.getKey();
+            Timer timer = e.getValue();
+            header(out, name, timer.help, "summary");
+            for (double q : QUANTILES) {
+                out.write(name + "{quantile=\"" + q + "\"} " + number(timer.quantileNanos(q) / 1e9) + "\n");
+            }
+            out.write(name + "_sum " + number(timer.sumNanos.sum() / 1e9) + "\n");
+            out.write(name + "_count " + timer.count() + "\n");
+            header(out, name + "_max", "Maximum of " + name, "gauge");
+            out.write(name + "_max " + number(timer.maxNanos.get() / 1e9) + "\n");
+        }
+    }
+
+    /**
+     * Writes all the metrics as a JSON object, with the timers in milliseconds.
+     *
+     * @param out Where to write
+     * @throws IOException If the writer fails
+     */
+    void writeJson(Writer out) throws IOException {
+        out.write("{\"timestamp\":" + System.currentTimeMillis() + ",\"counters\":{");
+        String sep = "";
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            out.write(sep + "\"" + e.getKey() + "\":" + e.getValue().get());
+            sep = ",";
+        }
+        out.write("},\"gauges\":{");
+        sep = "";
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            out.write(sep + "\"" + e.getKey() + "\":" + number(e.getValue().value.getAsDouble()));
+            sep = ",";
+        }
+        out.write("},\"timers\":{");
+        sep = "";
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Timer timer = e.getValue();
+            long n = timer.count();
+            out.write(sep + "\"" + e.getKey() + "\":{\"count\":" + n
+                    + ",\"sumMs\":" + number(timer.sumNanos.sum() / 1e6)
+                    + ",\"meanMs\":" + number(n > 0 ? timer.sumNanos.sum() / 1e6 / n : 0)
+                    + ",\"p50Ms\":" + number(timer.quantileNanos(0.5) / 1e6)
+                    + ",\"p90Ms\":" + number(timer.quantileNanos(0.9) / 1e6)
+                    + ",\"p99Ms\":" + number(timer.quantileNanos(0.99) / 1e6)
+                    + ",\"maxMs\":" + number(timer.maxNanos.get() / 1e6) + "}");
+            sep = ",";
+        }
+        out.write("}}\n");
+    }
+
+    /**
+     * Writes the metrics to a file, as JSON if its name ends in {@code .json}
+     * and in the Prometheus text format otherwise. The file is replaced
+     * atomically, so readers never see a partial dump.
+     *
+     * @param file The file to write
+     * @throws IOException If the file can't be written
+     */
+    void dump(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                if (file.getFileName().toString().endsWith(".json")) {
+                    writeJson(out);
+                } else {
+                    writePrometheus(out);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Dumps the metrics to a file every few seconds from a daemon thread.
+     *
+     * @param file    The file to write, see {@link #dump(Path)}
+     * @param seconds Seconds between dumps
+     * @return The scheduler, to shut it down
+     */
+    ScheduledExecutorService startDumping(Path file, long seconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                dump(file);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Can't write the metrics to " + file + ": " + e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+        return dumper;
+    }
+
+    /** @return One line per timer with its count and percentiles */
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Timer timer = e.getValue();
+            long n = timer.count();
+            if (n == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.ROOT, "%-28s %9d, mean %9.3f ms, p50 %9.3f ms, p99 %9.3f ms, max %9.3f ms%n",
+                    e.getKey(), n, timer.sumNanos.sum() / 1e6 / n, timer.quantileNanos(0.5) / 1e6,
+                    timer.quantileNanos(0.99) / 1e6, timer.maxNanos.get() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    private static void header(Writer out, String name, String help, String type) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.lucene.demo;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.postag.POSModel;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Registry of the OpenNLP models used to turn information needs into queries.
+ * <p>
+ * Each model is read from disk the first time it is needed and then shared:
+ * the models themselves are thread-safe. The taggers and name finders built
+ * from them are not, see {@link NlpPipeline}.
+ */
+final class NlpModels {
+
+    /** Named entity model for locations. */
+    static final String LOCATION_MODEL = "models/es-ner-location.bin";
+
+    /** Part of speech model, universal tag set. */
+    static final String POS_MODEL = "models/opennlp-es-pos-perceptron-pos-universal.model";
+
+    private static volatile TokenNameFinderModel locationModel;
+    private static volatile POSModel posModel;
+    private static volatile String version;
+
+    private NlpModels() {
+    }
+
+    /**
+     * @return The shared location model, loaded on first use
+     * @throws IOException If the model file can't be read
+     */
+    static TokenNameFinderModel locationModel() throws IOException {
+        TokenNameFinderModel model = locationModel;
+        if (model == null) {
+            synchronized (NlpModels.class) {
+                model = locationModel;
+                if (model == null) {
+                    try (InputStream modelIn = open(LOCATION_MODEL)) {
+                        model = new TokenNameFinderModel(modelIn);
+                    }
+                    locationModel = model;
+                }
+            }
+        }
+        return model;
+    }
+
+    /**
+     * @return The shared part of speech model, loaded on first use
+     * @throws IOException If the model file can't be read
+     */
+    static POSModel posModel() throws IOException {
+        POSModel model = posModel;
+        if (model == null) {
+            synchronized (NlpModels.class) {
+                model = posModel;
+                if (model == null) {
+                    try (InputStream modelIn = open(POS_MODEL)) {
+                        model = new POSModel(modelIn);
+                    }
+                    posModel = model;
+                }
+            }
+        }
+        return model;
+    }
+
+    /**
+     * @return A version of the models, from the hashes of their files, without
+     *         loading them
+     * @throws IOException If a model file can't be read
+     */
+    static String version() throws IOException {
+        String v = version;
+        if (v == null) {
+            v = IndexManifest.hash(new File(POS_MODEL)).substring(0, 16) + "-"
+                    + IndexManifest.hash(new File(LOCATION_MODEL)).substring(0, 16);
+            version = v;
+        }
+        return v;
+    }
+
+    private static InputStream open(String path) throws IOException {
+        return new BufferedInputStream(new FileInputStream(path));
+    }
+}
@@ -0,0 +1,40 @@
+package org.apache.lucene.demo;
+
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.QueryParser;
+
+import java.io.IOException;
+
+/**
+ * The stateful objects needed to turn an information need into a query: a
+ * part of speech tagger, a location finder, a stemmer, a query parser and a
+ * {@link QueryPlanner} for the term clauses.
+ * <p>
+ * None of them is thread-safe, so a pipeline must only be used by one thread
+ * at a time, either owned by a thread or borrowed from a
+ * {@link NlpPipelinePool}. The models they are built from are shared through
+ * {@link NlpModels}.
+ */
+final class NlpPipeline {
+
+    final POSTaggerME tagger;
+    final NameFinderME locationFinder;
+    final SnowballStemmer stemmer;
+    final QueryParser parser;
+    final QueryPlanner planner;
+
+    /**
+     * @param analyzer Analyzer of the query parser and planner
+     * @throws IOException If a model file can't be read
+     */
+    NlpPipeline(Analyzer analyzer) throws IOException {
+        this.tagger = new POSTaggerME(NlpModels.posModel());
+        this.locationFinder = new NameFinderME(NlpModels.locationModel());
+        this.stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.SPANISH);
+        this.parser = new DublinCoreQueryParser(SearchFiles.fields, analyzer);
+        this.planner = new QueryPlanner(analyzer);
+    }
+}
@@ -0,0 +1,100 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.Analyzer;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of {@link NlpPipeline}s.
+ * <p>
+ * The number of pipelines, and so the memory they use, does not grow with the
+ * number of threads: with one thread per request it is the number of
+ * information needs processed at the same time. Pipelines are built lazily up
+ * to the capacity; once all of them are busy, callers wait up to a timeout and
+ * are then turned away, so the caller can shed load instead of queueing
+ * without bound.
+ */
+final class NlpPipelinePool {
+
+    private final Analyzer analyzer;
+    private final int capacity;
+    private final BlockingQueue<NlpPipeline> idle;
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param analyzer Analyzer of the query parsers
+     * @param capacity Maximum number of pipelines
+     */
+    NlpPipelinePool(Analyzer analyzer, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0, got " + capacity);
+        }
+        this.analyzer = analyzer;
+        this.capacity = capacity;
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Borrows a pipeline, to be given back with {@link #release(NlpPipeline)}.
+     *
+     * @param timeout How long to wait for a pipeline when all are busy
+     * @param unit    Unit of the timeout
+     * @return A pipeline, or null if none was free within the timeout
+     * @throws IOException          If a new pipeline can't load its models
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    NlpPipeline acquire(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        NlpPipeline pipeline = idle.poll();
+        if (pipeline == null) {
+            pipeline = tryCreate();
+        }
+        if (pipeline == null) {
+            waited.incrementAndGet();
+            pipeline = idle.poll(timeout, unit);
+            if (pipeline == null) {
+                timeouts.incrementAndGet();
+                return null;
+            }
+        }
+        acquired.incrementAndGet();
+        return pipeline;
+    }
+
+    /**
+     * @param pipeline A pipeline returned by {@link #acquire(long, TimeUnit)}
+     */
+    void release(NlpPipeline pipeline) {
+        idle.offer(pipeline);
+    }
+
+    /** @return One line with the pipelines built and how often callers waited or were turned away */
+    String stats() {
+        return String.format("NLP pool: %d/%d pipelines, %d acquired, %d waited, %d timed out",
+                created.get(), capacity, acquired.get(), waited.get(), timeouts.get());
+    }
+
+    private NlpPipeline tryCreate() throws IOException {
+        int n;
+        do {
+            n = created.get();
+            if (n >= capacity) {
+                return null;
+            }
+        } while (!created.compareAndSet(n, n + 1));
+        try {
+            return new NlpPipeline(analyzer);
+        } catch (IOException | RuntimeException e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+}
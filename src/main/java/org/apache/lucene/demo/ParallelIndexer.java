@@ -0,0 +1,258 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded indexing pipeline.
+ * <p>
+ * A producer walks the document directory and puts every readable file on a
+ * bounded queue. A pool of workers takes files from the queue, parses them into
+ * Lucene documents and hands them to the {@link IndexWriter} of their shard
+ * (see {@link IndexShards}), which is shared by all of them. Each worker has
+ * its own {@link DublinCoreParser}. The queue is bounded so that a fast walk
+ * cannot run ahead of the workers and fill the heap. A bad document or file is
+ * skipped, but once a writer is closed by an unrecoverable error the whole
+ * pipeline stops and {@link #run(File)} throws it.
+ */
+final class ParallelIndexer {
+
+    /** Marker put on the queue once per worker when the walk is done. */
+    private static final File POISON = new File("");
+
+    private final IndexShards shards;
+    private final IndexManifest manifest;
+    private final int threads;
+    private final BlockingQueue<File> queue;
+
+    private final Stage walk = new Stage("walk");
+    private final Stage parse = new Stage("parse");
+    private final Stage index = new Stage("index");
+
+    private volatile boolean aborted = false;
+    private long wallNanos;
+
+    /**
+     * @param index    Writers shared by all the workers
+     * @param threads  Number of parse/index workers
+     * @param manifest Files already in the index, or null to index everything
+     */
+    ParallelIndexer(IndexShards index, int threads, IndexManifest manifest) {
+        this(index, threads, manifest, 64 * threads);
+    }
+
+    /**
+     * @param index         Writers shared by all the workers
+     * @param threads       Number of parse/index workers
+     * @param manifest      Files already in the index, or null to index everything,
+     *                      only for an unsharded index
+     * @param queueCapacity Maximum number of files waiting to be parsed
+     */
+    ParallelIndexer(IndexShards index, int threads, IndexManifest manifest, int queueCapacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be > 0, got " + threads);
+        }
+        this.shards = index;
+        this.manifest = manifest;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Indexes every file under the given directory, returning once all of them
+     * have been handed to the writer.
+     *
+     * @param root The file or directory to index
+     * @throws IOException          If the writer fails
+     * @throws InterruptedException If the calling thread is interrupted
+     */
+    void run(File root) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(this::work));
+            }
+
+            try {
+                walk(root);
+            } finally {
+                for (int i = 0; i < threads; i++) {
+                    put(POISON);
+                }
+            }
+
+            for (Future<Void> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    aborted = true;
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            wallNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Prints how many items each stage handled and how long it was busy, so
+     * that the slowest stage can be spotted.
+     */
+    void printReport() {
+        double wallSeconds = wallNanos / 1e9;
+        System.out.println("Pipeline with " + threads + " workers, "
+                + String.format("%.1f", wallSeconds) + " s wall time");
+        walk.print(1, wallSeconds);
+        parse.print(threads, wallSeconds);
+        index.print(threads, wallSeconds);
+    }
+
+    /** Recursive walk over the document tree, feeding the queue. */
+    private void walk(File file) throws InterruptedException {
+        if (aborted || !file.canRead()) {
+            return;
+        }
+        long t0 = System.nanoTime();
+        if (file.isDirectory()) {
+            String[] files = file.list();
+            walk.busy(System.nanoTime() - t0);
+            // an IO error could occur
+            if (files != null) {
+                for (int i = 0; i < files.length; i++) {
+                    walk(new File(file, files[i]));
+                }
+            }
+        } else {
+            walk.done(System.nanoTime() - t0);
+            put(file);
+        }
+    }
+
+    /** Worker loop: parse and index files until the walk is over. */
+    private Void work() throws IOException, InterruptedException {
+        DublinCoreParser parser = new DublinCoreParser();
+        boolean finished = false;
+        try {
+            while (true) {
+                long t0 = System.nanoTime();
+                // once a worker fails the pills are never queued, so don't
+                // wait for them forever on an empty queue
+                File file = queue.poll(100, TimeUnit.MILLISECONDS);
+                long t1 = System.nanoTime();
+                parse.waited(t1 - t0);
+                if (file == null && !aborted) {
+                    continue;
+                }
+                if (file == null || file == POISON || aborted) {
+                    finished = true;
+                    return null;
+                }
+
+                // records are indexed as soon as they are parsed, so the time
+                // spent in the writer is taken out of the parse stage
+                long[] indexNanos = new long[1];
+                try {
+                    String hash = null;
+                    if (manifest != null) {
+                        hash = manifest.prepare(shards.writer(0), file);
+                        if (hash == null) {
+                            // unchanged since the last run
+                            continue;
+                        }
+                    }
+                    IndexFiles.parseFile(file, hash, parser, (doc, recordIndex) -> {
+                        long t = System.nanoTime();
+                        try {
+                            IndexFiles.writeDocument(shards.writerFor(doc.get("path")), doc);
+                        } catch (RuntimeException e) {
+                            if (!shards.isHealthy()) {
+                                // every other document would fail the same way
+                                throw shards.tragicException(e);
+                            }
+                            // a bad document must not stop the whole pipeline
+                            e.printStackTrace();
+                            return;
+                        }
+                        long elapsed = System.nanoTime() - t;
+                        indexNanos[0] += elapsed;
+                        index.done(elapsed);
+                    });
+                } catch (IOException e) {
+                    if (!shards.isHealthy()) {
+                        throw e;
+                    }
+                    // unreadable file, skip it
+                    e.printStackTrace();
+                }
+                parse.done(System.nanoTime() - t1 - indexNanos[0]);
+            }
+        } finally {
+            if (!finished) {
+                // let the producer stop instead of blocking on a full queue
+                aborted = true;
+            }
+        }
+    }
+
+    /** Blocking put that gives up once a worker has failed. */
+    private void put(File file) throws InterruptedException {
+        long t0 = System.nanoTime();
+        while (!aborted && !queue.offer(file, 100, TimeUnit.MILLISECONDS)) {
+            // queue full, wait for the workers to catch up
+        }
+        walk.waited(System.nanoTime() - t0);
+    }
+
+    /** Throughput counters for a single pipeline stage. */
+    private static final class Stage {
+        private final String name;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void done(long nanos) {
+            items.incrementAndGet();
+            busyNanos.addAndGet(nanos);
+        }
+
+        void busy(long nanos) {
+            busyNanos.addAndGet(nanos);
+        }
+
+        void waited(long nanos) {
+            waitNanos.addAndGet(nanos);
+        }
+
+        void print(int threads, double wallSeconds) {
+            long n = items.get();
+            double busySeconds = busyNanos.get() / 1e9;
+            double perThread = busySeconds > 0 ? n / busySeconds : 0;
+            double overall = wallSeconds > 0 ? n / wallSeconds : 0;
+            System.out.println(String.format("  %-6s %8d items, busy %8.1f s, waiting %8.1f s, "
+                    + "%9.1f items/s per thread, %9.1f items/s overall (%d threads)",
+                    name, n, busySeconds, waitNanos.get() / 1e9, perThread, overall, threads));
+        }
+    }
+}
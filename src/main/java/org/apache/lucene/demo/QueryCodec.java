@@ -0,0 +1,228 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compact binary form of the queries built for the information needs, to
+ * persist them (see {@link InfoNeedQueryCache}).
+ * <p>
+ * Every query is a type byte followed by its parts: strings and terms as
+ * variable-length UTF-8, counts as variable-length integers, boosts as the
+ * bits of the float. Only the query types the information needs produce are
+ * supported: term, synonym, boolean, boost, term range, year range and the
+ * match all/none queries. {@link #encode(Query)} checks that decoding gives
+ * back an equal query, so a query that would not survive the trip is never
+ * persisted.
+ */
+final class QueryCodec {
+
+    private static final byte TERM = 0;
+    private static final byte SYNONYM = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte BOOST = 3;
+    private static final byte TERM_RANGE = 4;
+    private static final byte INT_RANGE = 5;
+    private static final byte MATCH_ALL = 6;
+    private static final byte MATCH_NONE = 7;
+
+    private static final BooleanClause.Occur[] OCCURS = BooleanClause.Occur.values();
+
+    private QueryCodec() {
+    }
+
+    /**
+     * @param query A query
+     * @return Its binary form, or null if it has a type that is not supported
+     *         or does not decode to an equal query
+     */
+    static byte[] encode(Query query) {
+        ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+        try {
+            write(out, query);
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+        byte[] bytes = out.toArrayCopy();
+        try {
+            return query.equals(decode(bytes)) ? bytes : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param bytes The binary form of a query, as given by {@link #encode(Query)}
+     * @return The query
+     * @throws IOException If the bytes are not a valid query
+     */
+    static Query decode(byte[] bytes) throws IOException {
+        ByteArrayDataInput in = new ByteArrayDataInput(bytes);
+        Query query = read(in);
+        if (!in.eof()) {
+            throw new IOException("Trailing bytes after the query");
+        }
+        return query;
+    }
+
+    private static void write(DataOutput out, Query query) throws IOException {
+        if (query instanceof TermQuery) {
+            out.writeByte(TERM);
+            writeTerm(out, ((TermQuery) query).getTerm());
+        } else if (query instanceof SynonymQuery) {
+            out.writeByte(SYNONYM);
+            List<Term> terms = ((SynonymQuery) query).getTerms();
+            out.writeString(terms.get(0).field());
+            out.writeVInt(terms.size());
+            for (Term term : terms) {
+                writeBytes(out, term.bytes());
+            }
+        } else if (query instanceof BooleanQuery) {
+            BooleanQuery bq = (BooleanQuery) query;
+            out.writeByte(BOOLEAN);
+            out.writeVInt(bq.getMinimumNumberShouldMatch());
+            out.writeVInt(bq.clauses().size());
+            for (BooleanClause clause : bq) {
+                out.writeByte((byte) clause.getOccur().ordinal());
+                write(out, clause.getQuery());
+            }
+        } else if (query instanceof BoostQuery) {
+            out.writeByte(BOOST);
+            out.writeInt(Float.floatToIntBits(((BoostQuery) query).getBoost()));
+            write(out, ((BoostQuery) query).getQuery());
+        } else if (query instanceof TermRangeQuery) {
+            TermRangeQuery range = (TermRangeQuery) query;
+            out.writeByte(TERM_RANGE);
+            out.writeString(range.getField());
+            writeOptionalBytes(out, range.getLowerTerm());
+            writeOptionalBytes(out, range.getUpperTerm());
+            out.writeByte((byte) ((range.includesLower() ? 1 : 0) | (range.includesUpper() ? 2 : 0)));
+        } else if (query instanceof PointRangeQuery && ((PointRangeQuery) query).getNumDims() == 1
+                && ((PointRangeQuery) query).getBytesPerDim() == Integer.BYTES) {
+            // only IntPoint ranges are built, anything else fails the equality check
+            PointRangeQuery range = (PointRangeQuery) query;
+            out.writeByte(INT_RANGE);
+            out.writeString(range.getField());
+            out.writeInt(IntPoint.decodeDimension(range.getLowerPoint(), 0));
+            out.writeInt(IntPoint.decodeDimension(range.getUpperPoint(), 0));
+        } else if (query instanceof MatchAllDocsQuery) {
+            out.writeByte(MATCH_ALL);
+        } else if (query instanceof MatchNoDocsQuery) {
+            out.writeByte(MATCH_NONE);
+        } else {
+            throw new IllegalArgumentException("Can't encode a " + query.getClass().getSimpleName());
+        }
+    }
+
+    private static Query read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case TERM:
+            return new TermQuery(readTerm(in));
+        case SYNONYM: {
+            String field = in.readString();
+            int count = in.readVInt();
+            SynonymQuery.Builder builder = new SynonymQuery.Builder(field);
+            for (int i = 0; i < count; i++) {
+                builder.addTerm(new Term(field, readBytes(in)));
+            }
+            return builder.build();
+        }
+        case BOOLEAN: {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setMinimumNumberShouldMatch(in.readVInt());
+            int count = in.readVInt();
+            for (int i = 0; i < count; i++) {
+                int occur = in.readByte();
+                if (occur < 0 || occur >= OCCURS.length) {
+                    throw new IOException("Invalid clause occurrence " + occur);
+                }
+                builder.add(read(in), OCCURS[occur]);
+            }
+            return builder.build();
+        }
+        case BOOST: {
+            float boost = Float.intBitsToFloat(in.readInt());
+            return new BoostQuery(read(in), boost);
+        }
+        case TERM_RANGE: {
+            String field = in.readString();
+            BytesRef lower = readOptionalBytes(in);
+            BytesRef upper = readOptionalBytes(in);
+            byte inclusive = in.readByte();
+            return new TermRangeQuery(field, lower, upper, (inclusive & 1) != 0, (inclusive & 2) != 0);
+        }
+        case INT_RANGE: {
+            String field = in.readString();
+            int lower = in.readInt();
+            int upper = in.readInt();
+            return IntPoint.newRangeQuery(field, lower, upper);
+        }
+        case MATCH_ALL:
+            return new MatchAllDocsQuery();
+        case MATCH_NONE:
+            return new MatchNoDocsQuery();
+        default:
+            throw new IOException("Unknown query type " + type);
+        }
+    }
+
+    private static void writeTerm(DataOutput out, Term term) throws IOException {
+        out.writeString(term.field());
+        writeBytes(out, term.bytes());
+    }
+
+    private static Term readTerm(DataInput in) throws IOException {
+        String field = in.readString();
+        return new Term(field, readBytes(in));
+    }
+
+    private static void writeBytes(DataOutput out, BytesRef bytes) throws IOException {
+        out.writeVInt(bytes.length);
+        out.writeBytes(bytes.bytes, bytes.offset, bytes.length);
+    }
+
+    private static BytesRef readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readVInt()];
+        in.readBytes(bytes, 0, bytes.length);
+        return new BytesRef(bytes);
+    }
+
+    /** Nullable bytes, e.g. an open range bound: length + 1, 0 for null. */
+    private static void writeOptionalBytes(DataOutput out, BytesRef bytes) throws IOException {
+        if (bytes == null) {
+            out.writeVInt(0);
+            return;
+        }
+        out.writeVInt(bytes.length + 1);
+        out.writeBytes(bytes.bytes, bytes.offset, bytes.length);
+    }
+
+    private static BytesRef readOptionalBytes(DataInput in) throws IOException {
+        int length = in.readVInt();
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readBytes(bytes, 0, bytes.length);
+        return new BytesRef(bytes);
+    }
+}
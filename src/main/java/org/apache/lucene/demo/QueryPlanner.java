@@ -0,0 +1,246 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the term clauses of the information needs without the query parser.
+ * <p>
+ * The clauses used to go through {@code parser.parse("field:" + token)}, which
+ * analyzes the token again for every field. Here each token is analyzed once
+ * per query, as the analyzer does not depend on the field, and the
+ * {@link TermQuery} and {@link SynonymQuery} objects are built directly, with
+ * the same structure the parser gives to a single unquoted word.
+ * <p>
+ * When a reader is given, the {@link TermStates} of every term are looked up
+ * in a cache shared by all planners, kept per reader so a refreshed index
+ * starts a new one. Terms absent from the index are dropped, and so are the
+ * clauses left without terms: they can't match, and in large disjunctions
+ * they still cost a lookup on every segment while scoring. The remaining
+ * clauses score exactly as before, since the looked up statistics are the
+ * ones scoring would compute.
+ * <p>
+ * Instances are not thread-safe, use one per thread, e.g. in a
+ * {@link NlpPipeline}.
+ */
+final class QueryPlanner {
+
+    /** Terms kept per reader before the cache of that reader is cleared. */
+    private static final int MAX_CACHED_TERMS = 1 << 16;
+
+    /** Term statistics by term, per reader generation, dropped when the reader is closed. */
+    private static final Map<Object, Map<Term, TermStates>> TERM_STATES = new ConcurrentHashMap<>();
+
+    private static final Metrics.Counter CLAUSES = Metrics.GLOBAL.counter("search_planner_clauses_total",
+            "Term clauses planned for information needs");
+    private static final Metrics.Counter DROPPED = Metrics.GLOBAL.counter("search_planner_dropped_clauses_total",
+            "Term clauses dropped because none of their terms is in the index");
+
+    private final Analyzer analyzer;
+    /** Terms of every token analyzed for the current query, by position. */
+    private final Map<String, List<List<String>>> analyzed = new HashMap<>();
+
+    private IndexReader reader;
+    private Map<Term, TermStates> termStates;
+
+    /** @param analyzer Analyzer of the query terms, the same for every field */
+    QueryPlanner(Analyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Starts planning a new query.
+     *
+     * @param reader Index to check the terms against, or null to keep them all
+     */
+    void begin(IndexReader reader) {
+        analyzed.clear();
+        this.reader = reader;
+        this.termStates = reader != null ? termStatesOf(reader) : null;
+    }
+
+    /**
+     * Builds the clause of a word on a field, like the query parser does for
+     * {@code field:text}: a term query, a synonym query for terms at the same
+     * position or a disjunction of those if the word is split.
+     *
+     * @param field Field to search
+     * @param text  A single word, not analyzed
+     * @return The clause, or null if the word has no terms (e.g. a stop word)
+     *         or none of them is in the index
+     * @throws IOException If the index can't be read
+     */
+    Query field(String field, String text) throws IOException {
+        List<List<String>> positions = analyze(text);
+        if (positions.isEmpty()) {
+            return null;
+        }
+        CLAUSES.inc();
+
+        BooleanQuery.Builder disjunction = positions.size() > 1 ? new BooleanQuery.Builder() : null;
+        Query single = null;
+        for (List<String> position : positions) {
+            Query query = position(field, position);
+            if (query == null) {
+                continue;
+            }
+            if (disjunction != null) {
+                disjunction.add(query, BooleanClause.Occur.SHOULD);
+            }
+            single = query;
+        }
+        if (single == null) {
+            DROPPED.inc();
+            return null;
+        }
+        return disjunction != null ? disjunction.build() : single;
+    }
+
+    /**
+     * Checks the terms of a query built without a reader, e.g. one read from
+     * an {@link InfoNeedQueryCache}, against the index of the current query:
+     * like {@link #field(String, String)} does, the term statistics are looked
+     * up and the clauses that can't match are dropped.
+     *
+     * @param query A query
+     * @return The planned query, or null if it can't match anything
+     * @throws IOException If the index can't be read
+     */
+    Query plan(Query query) throws IOException {
+        if (reader == null) {
+            return query;
+        }
+        if (query instanceof TermQuery) {
+            return termQuery(((TermQuery) query).getTerm());
+        }
+        if (query instanceof SynonymQuery) {
+            List<Term> terms = ((SynonymQuery) query).getTerms();
+            List<String> texts = new ArrayList<>(terms.size());
+            for (Term term : terms) {
+                texts.add(term.text());
+            }
+            return position(terms.get(0).field(), texts);
+        }
+        if (query instanceof BoostQuery) {
+            Query planned = plan(((BoostQuery) query).getQuery());
+            return planned != null ? new BoostQuery(planned, ((BoostQuery) query).getBoost()) : null;
+        }
+        if (query instanceof BooleanQuery) {
+            BooleanQuery bq = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setMinimumNumberShouldMatch(bq.getMinimumNumberShouldMatch());
+            boolean positive = false;
+            for (BooleanClause clause : bq) {
+                Query planned = plan(clause.getQuery());
+                if (planned == null) {
+                    if (clause.isRequired()) {
+                        return null;
+                    }
+                    // an optional or prohibited clause that can't match changes nothing
+                    continue;
+                }
+                builder.add(planned, clause.getOccur());
+                positive |= !clause.isProhibited();
+            }
+            return positive ? builder.build() : null;
+        }
+        return query;
+    }
+
+    private Query position(String field, List<String> terms) throws IOException {
+        if (terms.size() == 1) {
+            return termQuery(new Term(field, terms.get(0)));
+        }
+        SynonymQuery.Builder synonyms = new SynonymQuery.Builder(field);
+        boolean any = false;
+        for (String text : terms) {
+            Term term = new Term(field, text);
+            if (reader == null || states(term).docFreq() > 0) {
+                synonyms.addTerm(term);
+                any = true;
+            }
+        }
+        return any ? synonyms.build() : null;
+    }
+
+    private TermQuery termQuery(Term term) throws IOException {
+        if (reader == null) {
+            return new TermQuery(term);
+        }
+        TermStates states = states(term);
+        // the searcher reuses the statistics if it runs on the same reader
+        return states.docFreq() > 0 ? new TermQuery(term, states) : null;
+    }
+
+    private TermStates states(Term term) throws IOException {
+        TermStates states = termStates.get(term);
+        if (states == null) {
+            states = TermStates.build(reader.getContext(), term, true);
+            if (termStates.size() >= MAX_CACHED_TERMS) {
+                termStates.clear();
+            }
+            termStates.put(term, states);
+        }
+        return states;
+    }
+
+    private List<List<String>> analyze(String text) throws IOException {
+        List<List<String>> positions = analyzed.get(text);
+        if (positions != null) {
+            return positions;
+        }
+        positions = new ArrayList<>(1);
+        try (TokenStream stream = analyzer.tokenStream("", text)) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                if (positions.isEmpty() || posIncAtt.getPositionIncrement() > 0) {
+                    positions.add(new ArrayList<>(1));
+                }
+                positions.get(positions.size() - 1).add(termAtt.toString());
+            }
+            stream.end();
+        }
+        analyzed.put(text, positions);
+        return positions;
+    }
+
+    /** @return The term statistics cache of a reader, or a private one if it can't be cached */
+    private static Map<Term, TermStates> termStatesOf(IndexReader reader) {
+        IndexReader top = reader.getContext().reader();
+        // sharded indexes too, see ShardedReader
+        Object key = ShardedReader.cacheKey(top);
+        if (key == null) {
+            return new HashMap<>();
+        }
+        Map<Term, TermStates> states = TERM_STATES.get(key);
+        if (states == null) {
+            states = new ConcurrentHashMap<>();
+            Map<Term, TermStates> previous = TERM_STATES.putIfAbsent(key, states);
+            if (previous != null) {
+                return previous;
+            }
+            ShardedReader.whenClosed(top, key, TERM_STATES::remove);
+        }
+        return states;
+    }
+}
@@ -0,0 +1,209 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded LRU cache of query results.
+ * <p>
+ * Entries are keyed by the query, the number of hits asked for and the reader
+ * they were computed on, so a reopened reader never sees stale results. The
+ * whole cache is dropped as soon as it is used with a different reader, and
+ * entries are evicted in least recently used order once either the maximum
+ * number of entries or the maximum memory is reached.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class QueryResultCache {
+
+    /** Rough size of a cached query, as assumed by Lucene's own query cache. */
+    private static final long QUERY_RAM_BYTES = 1024;
+
+    private static final long ENTRY_RAM_BYTES = RamUsageEstimator.NUM_BYTES_OBJECT_HEADER * 3L
+            + 6L * RamUsageEstimator.NUM_BYTES_OBJECT_REF + 3L * Long.BYTES + 2L * Integer.BYTES;
+
+    private final int maxEntries;
+    private final long maxRamBytes;
+    private final LinkedHashMap<Key, Hits> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private Object readerKey;
+    private long ramBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxEntries  Maximum number of cached results
+     * @param maxRamBytes Maximum estimated memory of the cached results
+     */
+    QueryResultCache(int maxEntries, long maxRamBytes) {
+        if (maxEntries <= 0 || maxRamBytes <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxRamBytes must be > 0");
+        }
+        this.maxEntries = maxEntries;
+        this.maxRamBytes = maxRamBytes;
+    }
+
+    /**
+     * @param reader Reader the query runs on
+     * @param query  The query
+     * @param n      Number of hits asked for, 0 or less for all of them
+     * @return The cached hits, or null on a miss
+     */
+    synchronized Hits get(IndexReader reader, Query query, int n) {
+        checkReader(reader);
+        Hits cached = entries.get(new Key(query, n));
+        if (cached == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return cached;
+    }
+
+    /**
+     * @param reader Reader the query ran on
+     * @param query  The query
+     * @param n      Number of hits asked for, 0 or less for all of them
+     * @param value  The hits found
+     */
+    synchronized void put(IndexReader reader, Query query, int n, Hits value) {
+        checkReader(reader);
+        long size = value.ramBytesUsed();
+        if (size > maxRamBytes) {
+            // would evict everything else and still not fit
+            return;
+        }
+        Hits previous = entries.put(new Key(query, n), value);
+        if (previous != null) {
+            ramBytes -= previous.ramBytesUsed();
+        }
+        ramBytes += size;
+
+        Iterator<Map.Entry<Key, Hits>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || ramBytes > maxRamBytes) && it.hasNext()) {
+            Map.Entry<Key, Hits> eldest = it.next();
+            ramBytes -= eldest.getValue().ramBytesUsed();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /** Drops every entry, e.g. after reopening the reader. */
+    synchronized void invalidate() {
+        if (!entries.isEmpty()) {
+            invalidations++;
+        }
+        entries.clear();
+        ramBytes = 0;
+    }
+
+    /** @return One line with the entries, memory and hit/miss/eviction counters */
+    synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("Result cache: %d entries, %.1f KB, %d hits, %d misses (%.1f%% hit rate), "
+                + "%d evictions, %d invalidations",
+                entries.size(), ramBytes / 1024.0, hits, misses, lookups > 0 ? 100.0 * hits / lookups : 0.0,
+                evictions, invalidations);
+    }
+
+    synchronized long hitCount() {
+        return hits;
+    }
+
+    synchronized long missCount() {
+        return misses;
+    }
+
+    synchronized long evictionCount() {
+        return evictions;
+    }
+
+    /** Results computed on another reader, e.g. before a reopen, are dropped. */
+    private void checkReader(IndexReader reader) {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        Object key = helper != null ? helper.getKey() : reader;
+        if (key != readerKey) {
+            invalidate();
+            readerKey = key;
+        }
+    }
+
+    /** Hits of a query, by decreasing score. */
+    static final class Hits {
+        final int[] docs;
+        final float[] scores;
+        final int size;
+        final long totalHits;
+        final TotalHits.Relation relation;
+
+        Hits(int[] docs, float[] scores, int size, long totalHits, TotalHits.Relation relation) {
+            this.docs = docs;
+            this.scores = scores;
+            this.size = size;
+            this.totalHits = totalHits;
+            this.relation = relation;
+        }
+
+        /** Copies the hits of a {@link TopDocs}. */
+        static Hits of(TopDocs topDocs) {
+            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+            int[] docs = new int[scoreDocs.length];
+            float[] scores = new float[scoreDocs.length];
+            for (int i = 0; i < scoreDocs.length; i++) {
+                docs[i] = scoreDocs[i].doc;
+                scores[i] = scoreDocs[i].score;
+            }
+            return new Hits(docs, scores, docs.length, topDocs.totalHits.value, topDocs.totalHits.relation);
+        }
+
+        /** @return A new {@link TopDocs}, so callers may modify it */
+        TopDocs toTopDocs() {
+            ScoreDoc[] scoreDocs = new ScoreDoc[size];
+            for (int i = 0; i < size; i++) {
+                scoreDocs[i] = new ScoreDoc(docs[i], scores[i]);
+            }
+            return new TopDocs(new TotalHits(totalHits, relation), scoreDocs);
+        }
+
+        long ramBytesUsed() {
+            return ENTRY_RAM_BYTES + QUERY_RAM_BYTES + RamUsageEstimator.sizeOf(docs)
+                    + RamUsageEstimator.sizeOf(scores);
+        }
+    }
+
+    private static final class Key {
+        final Query query;
+        final int n;
+
+        Key(Query query, int n) {
+            this.query = query;
+            this.n = Math.max(0, n);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return n == other.n && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, n);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reshapes the disjunctions built for the information needs so that top-k
+ * searches can skip documents that can't make it to the top.
+ * <p>
+ * With a total hits threshold, Lucene scores a pure disjunction with block-max
+ * WAND: once the top k are full, it skips the blocks of documents whose
+ * clauses can't add up to the k-th score. That works best with a single flat
+ * disjunction of distinct clauses, each with its own maximum score. The
+ * generated queries instead repeat clauses (the same word twice in the need),
+ * nest disjunctions (a parsed multi-word clause) and keep empty clauses that
+ * match nothing. Here:
+ * <ul>
+ * <li>nested disjunctions are inlined, pushing their boost down to their
+ * clauses, which is what scoring does anyway;</li>
+ * <li>repeated clauses are merged into one with the sum of their boosts, which
+ * scores the same as matching each of them;</li>
+ * <li>clauses that can't match are dropped.</li>
+ * </ul>
+ * Queries with required, prohibited or minimum-should-match clauses are left
+ * as they are.
+ */
+final class QueryShaper {
+
+    private QueryShaper() {
+    }
+
+    /**
+     * @param query A query built for an information need
+     * @return An equivalent query, flattened and without repeated clauses
+     */
+    static Query shape(Query query) {
+        if (!isPureDisjunction(query)) {
+            return query;
+        }
+        // boost of every distinct clause, in the order they first appear
+        Map<Query, Float> clauses = new LinkedHashMap<>();
+        collect(query, 1f, clauses);
+
+        if (clauses.size() == 1) {
+            Map.Entry<Query, Float> only = clauses.entrySet().iterator().next();
+            return boost(only.getKey(), only.getValue());
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Map.Entry<Query, Float> clause : clauses.entrySet()) {
+            builder.add(boost(clause.getKey(), clause.getValue()), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private static void collect(Query query, float boost, Map<Query, Float> clauses) {
+        while (query instanceof BoostQuery) {
+            boost *= ((BoostQuery) query).getBoost();
+            query = ((BoostQuery) query).getQuery();
+        }
+        if (query instanceof MatchNoDocsQuery || boost == 0f) {
+            return;
+        }
+        if (isPureDisjunction(query)) {
+            for (BooleanClause clause : (BooleanQuery) query) {
+                collect(clause.getQuery(), boost, clauses);
+            }
+            return;
+        }
+        clauses.merge(query, boost, Float::sum);
+    }
+
+    private static boolean isPureDisjunction(Query query) {
+        if (!(query instanceof BooleanQuery)) {
+            return false;
+        }
+        BooleanQuery bq = (BooleanQuery) query;
+        if (bq.getMinimumNumberShouldMatch() != 0) {
+            return false;
+        }
+        for (BooleanClause clause : bq) {
+            if (clause.getOccur() != BooleanClause.Occur.SHOULD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Query boost(Query query, float boost) {
+        return boost == 1f ? query : new BoostQuery(query, boost);
+    }
+}
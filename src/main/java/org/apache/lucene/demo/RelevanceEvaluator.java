@@ -0,0 +1,269 @@
+package org.apache.lucene.demo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Scores the results of the information needs against relevance judgements,
+ * enabled with {@code -qrels FILE}, so a run is evaluated without writing its
+ * hits and reading them back with an external tool.
+ * <p>
+ * Every line of the judgements file is either {@code need doc relevance} or,
+ * as written for trec_eval, {@code need iteration doc relevance}, separated by
+ * tabs or spaces. A document is the file name of its record, so judgements
+ * made on other machines match whatever folder the corpus is in; a relevance
+ * above 0 is relevant, and its value is the gain used by nDCG.
+ * <p>
+ * The file is read once: needs and documents get int ids, and every need keeps
+ * its judged documents as a sorted {@code int[]} with their relevance alongside.
+ * Each result list is scored as soon as it is searched, in a single pass over
+ * its hits, and only its metrics are kept. For every need it computes the
+ * precision, recall and F1 of the whole list, the precision and nDCG at the
+ * cutoff, and the average precision; {@link #report()} gives them per need and
+ * their means, MAP being the mean of the average precisions. A need with no
+ * relevant document scores 0 in recall, average precision and nDCG. Safe to
+ * use from several threads.
+ */
+final class RelevanceEvaluator {
+
+    private final Path file;
+    private final int cutoff;
+
+    private final Map<String, Integer> needIds = new HashMap<>();
+    private final Map<String, Integer> docIds;
+    private final String[] needs;
+    /** Judged documents of every need, sorted. */
+    private final int[][] judged;
+    /** Relevance of the judged documents, in the same order. */
+    private final int[][] relevance;
+    private final int[] relevantCount;
+    private final double[] idealDcg;
+
+    private final AtomicReferenceArray<Result> results;
+    private final AtomicInteger unjudgedRuns = new AtomicInteger();
+
+    /** Metrics of the results of a need. */
+    private static final class Result {
+        final int retrieved;
+        final int relevantRetrieved;
+        final double precision;
+        final double recall;
+        final double f1;
+        final double precisionAtCutoff;
+        final double averagePrecision;
+        final double ndcg;
+
+        Result(int retrieved, int relevantRetrieved, double precision, double recall, double f1,
+                double precisionAtCutoff, double averagePrecision, double ndcg) {
+            this.retrieved = retrieved;
+            this.relevantRetrieved = relevantRetrieved;
+            this.precision = precision;
+            this.recall = recall;
+            this.f1 = f1;
+            this.precisionAtCutoff = precisionAtCutoff;
+            this.averagePrecision = averagePrecision;
+            this.ndcg = ndcg;
+        }
+    }
+
+    private RelevanceEvaluator(Path file, int cutoff, Map<String, Integer> docIds,
+            Map<String, Map<Integer, Integer>> qrels) {
+        this.file = file;
+        this.cutoff = cutoff;
+        this.docIds = docIds;
+        int count = qrels.size();
+        needs = new String[count];
+        judged = new int[count][];
+        relevance = new int[count][];
+        relevantCount = new int[count];
+        idealDcg = new double[count];
+        results = new AtomicReferenceArray<>(count);
+
+        int need = 0;
+        for (Map.Entry<String, Map<Integer, Integer>> entry : qrels.entrySet()) {
+            needs[need] = entry.getKey();
+            needIds.put(entry.getKey(), need);
+            int[] docs = new int[entry.getValue().size()];
+            int i = 0;
+            for (int doc : entry.getValue().keySet()) {
+                docs[i++] = doc;
+            }
+            Arrays.sort(docs);
+            int[] grades = new int[docs.length];
+            for (i = 0; i < docs.length; i++) {
+                grades[i] = entry.getValue().get(docs[i]);
+                if (grades[i] > 0) {
+                    relevantCount[need]++;
+                }
+            }
+            judged[need] = docs;
+            relevance[need] = grades;
+
+            // best possible ranking: the most relevant documents first
+            int[] ideal = grades.clone();
+            Arrays.sort(ideal);
+            for (int rank = 0; rank < Math.min(cutoff, ideal.length); rank++) {
+                idealDcg[need] += discounted(ideal[ideal.length - 1 - rank], rank);
+            }
+            need++;
+        }
+    }
+
+    /**
+     * Reads a judgements file.
+     *
+     * @param file   The file
+     * @param cutoff Rank at which the precision and nDCG are measured
+     * @return The evaluator
+     * @throws IOException If the file can't be read or a line is not a judgement
+     */
+    static RelevanceEvaluator load(Path file, int cutoff) throws IOException {
+        if (cutoff <= 0) {
+            throw new IllegalArgumentException("cutoff must be > 0, got " + cutoff);
+        }
+        Map<String, Integer> docIds = new HashMap<>();
+        Map<String, Map<Integer, Integer>> qrels = new LinkedHashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\\s+");
+                if (columns.length != 3 && columns.length != 4) {
+                    throw new IOException(file + ":" + number + ": expected 'need doc relevance', got '" + line + "'");
+                }
+                String doc = docKey(columns[columns.length - 2]);
+                int grade;
+                try {
+                    grade = Integer.parseInt(columns[columns.length - 1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + number + ": relevance is not a number in '" + line + "'");
+                }
+                Integer id = docIds.computeIfAbsent(doc, d -> docIds.size());
+                qrels.computeIfAbsent(columns[0], n -> new HashMap<>()).put(id, grade);
+            }
+        }
+        return new RelevanceEvaluator(file, cutoff, docIds, qrels);
+    }
+
+    /**
+     * @param path Path of a record, with either separator
+     * @return The name the record is judged by: its file name
+     */
+    static String docKey(String path) {
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(slash + 1);
+    }
+
+    /**
+     * Scores the results of a need. Results of needs without judgements are
+     * only counted.
+     *
+     * @param need  Identifier of the need
+     * @param paths Paths of the hits in rank order, null for a hit without path
+     * @param count Number of hits
+     */
+    void score(String need, String[] paths, int count) {
+        Integer id = needIds.get(need);
+        if (id == null) {
+            unjudgedRuns.incrementAndGet();
+            return;
+        }
+        int[] docs = judged[id];
+        int[] grades = relevance[id];
+        int relevant = relevantCount[id];
+
+        int relevantRetrieved = 0;
+        int relevantAtCutoff = 0;
+        double precisionSum = 0;
+        double dcg = 0;
+        for (int rank = 0; rank < count; rank++) {
+            int grade = 0;
+            if (paths[rank] != null) {
+                Integer doc = docIds.get(docKey(paths[rank]));
+                int at = doc == null ? -1 : Arrays.binarySearch(docs, doc);
+                grade = at >= 0 ? grades[at] : 0;
+            }
+            if (grade <= 0) {
+                continue;
+            }
+            relevantRetrieved++;
+            precisionSum += (double) relevantRetrieved / (rank + 1);
+            if (rank < cutoff) {
+                relevantAtCutoff++;
+                dcg += discounted(grade, rank);
+            }
+        }
+
+        double precision = count > 0 ? (double) relevantRetrieved / count : 0;
+        double recall = relevant > 0 ? (double) relevantRetrieved / relevant : 0;
+        double f1 = precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0;
+        results.set(id, new Result(count, relevantRetrieved, precision, recall, f1,
+                (double) relevantAtCutoff / cutoff,
+                relevant > 0 ? precisionSum / relevant : 0,
+                idealDcg[id] > 0 ? dcg / idealDcg[id] : 0));
+    }
+
+    /** Gain of a document at a rank, from 0, with the log2 discount of nDCG. */
+    private static double discounted(int grade, int rank) {
+        return grade / (Math.log(rank + 2) / Math.log(2));
+    }
+
+    /**
+     * @return The metrics of every need scored, in the order of the judgements
+     *         file, and their means
+     */
+    String report() {
+        String nl = System.lineSeparator();
+        String header = String.format("%-12s %6s %6s %6s %6s %6s %8s %9s", "need", "P", "R", "F1",
+                "P@" + cutoff, "AP", "nDCG@" + cutoff, "rel/ret");
+        StringBuilder report = new StringBuilder("Evaluation against ").append(file).append(nl).append(header);
+        double[] sums = new double[6];
+        int scored = 0;
+        int notRun = 0;
+        for (int need = 0; need < needs.length; need++) {
+            Result result = results.get(need);
+            if (result == null) {
+                notRun++;
+                continue;
+            }
+            scored++;
+            double[] values = { result.precision, result.recall, result.f1, result.precisionAtCutoff,
+                    result.averagePrecision, result.ndcg };
+            for (int i = 0; i < values.length; i++) {
+                sums[i] += values[i];
+            }
+            report.append(nl).append(String.format("%-12s %6.3f %6.3f %6.3f %6.3f %6.3f %8.3f %9s", needs[need],
+                    values[0], values[1], values[2], values[3], values[4], values[5],
+                    result.relevantRetrieved + "/" + result.retrieved));
+        }
+        if (scored == 0) {
+            report.append(nl).append("No judged need was run");
+        } else {
+            report.append(nl).append(String.format("%-12s %6.3f %6.3f %6.3f %6.3f %6.3f %8.3f", "mean",
+                    sums[0] / scored, sums[1] / scored, sums[2] / scored, sums[3] / scored,
+                    sums[4] / scored, sums[5] / scored));
+            report.append(nl).append(String.format("MAP %.4f over %d needs", sums[4] / scored, scored));
+        }
+        if (notRun > 0) {
+            report.append(", ").append(notRun).append(" judged needs not run");
+        }
+        if (unjudgedRuns.get() > 0) {
+            report.append(", ").append(unjudgedRuns.get()).append(" results of needs without judgements");
+        }
+        return report.toString();
+    }
+}
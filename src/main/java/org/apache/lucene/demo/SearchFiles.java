@@ -19,9 +19,11 @@ package org.apache.lucene.demo;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.lucene.index.Term ;
 import opennlp.tools.stemmer.PorterStemmer;
@@ -36,13 +38,12 @@ import opennlp.tools.util.Span;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.es.SpanishLightStemmer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.store.FSDirectory;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -61,12 +62,50 @@ public class SearchFiles {
 
     static String[] fields = { "title", "subject", "description", "creator", "contributor", "publisher", "date", "type" };
 
+    /** Cache of query results, enabled with -cache. */
+    static QueryResultCache resultCache = null;
+
+    /**
+     * Hits counted exactly before top-k searches start skipping the documents
+     * that can't compete, set with -totalHitsThreshold. The default is the one
+     * of {@link IndexSearcher#search(Query, int)}.
+     */
+    static int totalHitsThreshold = 1000;
+
+    /** Persisted queries of the information needs, enabled with -queryCache. */
+    static InfoNeedQueryCache queryCache = null;
+
+    /**
+     * Version of the rules turning information needs into queries. Bump it
+     * when {@link #generateQueryFromInfoNeed(String, NlpPipeline, IndexReader)}
+     * or the analysis of the queries change, so the queries persisted with
+     * -queryCache are built again.
+     */
+    static final int INFO_NEED_RULES_VERSION = 1;
+
+    /** Scores the hits of every search against relevance judgements, enabled with -qrels. */
+    static RelevanceEvaluator evaluator = null;
+
+    /** Values shown per facet dimension with the results, set with -facets; 0 to not count them. */
+    static int facetLabels = 0;
+
+    static final Metrics.Timer QUERY_BUILD_TIME = Metrics.GLOBAL.timer("search_query_build_seconds",
+            "Time to build a query from its text, NLP tagging included");
+    static final Metrics.Timer NLP_TAGGING_TIME = Metrics.GLOBAL.timer("search_nlp_tagging_seconds",
+            "Time to tokenize, tag and find the names of an information need");
+    static final Metrics.Timer SEARCH_TIME = Metrics.GLOBAL.timer("search_seconds",
+            "Time to run a query against the index, not counting result cache hits");
+    static final Metrics.Timer FETCH_TIME = Metrics.GLOBAL.timer("search_fetch_seconds",
+            "Time to read the paths of the hits shown");
+    static final Metrics.Counter SEARCHES = Metrics.GLOBAL.counter("search_total",
+            "Searches run, result cache hits included");
+
     private SearchFiles() {
     }
 
     /** Simple command-line based search demo. */
     public static void main(String[] args) throws Exception {
-        String usage = "Usage:\tjava org.apache.lucene.demo.SearchFiles [-index dir] [-field f] [-repeat n] [-queries file] [-query string] [-raw] [-paging hitsPerPage]\n\nSee http://lucene.apache.org/core/4_1_0/demo/ for details.";
+        String usage = "Usage:\tjava org.apache.lucene.demo.SearchFiles [-index dir] [-field f] [-repeat n] [-queries file] [-query string] [-raw] [-paging hitsPerPage] [-infoNeeds file] [-output file] [-maxHits n] [-threads n] [-cache entries] [-cacheMB mb] [-searchThreads n] [-sliceDocs n] [-sliceSegments n] [-compareSlices] [-stemCacheLoad file] [-metrics file] [-metricsEvery seconds] [-totalHitsThreshold n] [-facets n] [-directory auto|mmap|nio] [-preload ext,...|all] [-warmup file] [-queryCache file] [-qrels file] [-evalCutoff n]\n\nSee http://lucene.apache.org/core/4_1_0/demo/ for details.";
         if (args.length > 0 && ("-h".equals(args[0]) || "-help".equals(args[0]))) {
             System.out.println(usage);
             System.exit(0);
@@ -89,13 +128,30 @@ public class SearchFiles {
         String infoNeedsFile = null;
         String[] identifiers = null;
         int hitsPerPage = 10;
-        OutputStreamWriter out = null;
+        int threads = 0;
+        int maxHits = 0;
+        int cacheEntries = 0;
+        double cacheMB = 64;
+        int searchThreads = 0;
+        int sliceDocs = SlicedIndexSearcher.MAX_DOCS_PER_SLICE;
+        int sliceSegments = SlicedIndexSearcher.MAX_SEGMENTS_PER_SLICE;
+        boolean compareSlices = false;
+        String stemCacheLoad = null;
+        String metricsFile = null;
+        long metricsEvery = 0;
+        IndexDirectory directoryMode = IndexDirectory.AUTO;
+        Set<String> preload = IndexDirectory.noPreload();
+        String warmupFile = null;
+        String queryCacheFile = null;
+        String qrelsFile = null;
+        int evalCutoff = 10;
+        Writer out = null;
         LinkedHashMap<String,Query> infoNeeds = null;
 
         
         Analyzer analyzer = new SpanishAnalyzer2();
         
-        QueryParser parser = new MultiFieldQueryParser(fields, analyzer);
+        QueryParser parser = new DublinCoreQueryParser(fields, analyzer);
 
         for (int i = 0; i < args.length; i++) {
             if ("-index".equals(args[i])) {
@@ -130,16 +186,142 @@ public class SearchFiles {
                 out = new OutputStreamWriter(new FileOutputStream(args[i + 1]), "UTF-8");
             } else if ("-infoNeeds".equals(args[i])) {
                 infoNeedsFile = args[++i];
-                
-                infoNeeds = searchInfoNeeds(infoNeedsFile);
-
-                identifiers = infoNeeds.keySet().toArray(new String[0]);
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-maxHits".equals(args[i])) {
+                maxHits = Integer.parseInt(args[++i]);
+            } else if ("-cache".equals(args[i])) {
+                cacheEntries = Integer.parseInt(args[++i]);
+            } else if ("-cacheMB".equals(args[i])) {
+                cacheMB = Double.parseDouble(args[++i]);
+            } else if ("-searchThreads".equals(args[i])) {
+                searchThreads = Integer.parseInt(args[++i]);
+            } else if ("-sliceDocs".equals(args[i])) {
+                sliceDocs = Integer.parseInt(args[++i]);
+            } else if ("-sliceSegments".equals(args[i])) {
+                sliceSegments = Integer.parseInt(args[++i]);
+            } else if ("-compareSlices".equals(args[i])) {
+                compareSlices = true;
+            } else if ("-stemCacheLoad".equals(args[i])) {
+                stemCacheLoad = args[++i];
+            } else if ("-metrics".equals(args[i])) {
+                metricsFile = args[++i];
+            } else if ("-metricsEvery".equals(args[i])) {
+                metricsEvery = Long.parseLong(args[++i]);
+            } else if ("-totalHitsThreshold".equals(args[i])) {
+                totalHitsThreshold = Integer.parseInt(args[++i]);
+            } else if ("-facets".equals(args[i])) {
+                facetLabels = Integer.parseInt(args[++i]);
+            } else if ("-directory".equals(args[i])) {
+                directoryMode = IndexDirectory.forName(args[++i]);
+            } else if ("-preload".equals(args[i])) {
+                preload = IndexDirectory.extensions(args[++i]);
+            } else if ("-warmup".equals(args[i])) {
+                warmupFile = args[++i];
+            } else if ("-queryCache".equals(args[i])) {
+                queryCacheFile = args[++i];
+            } else if ("-qrels".equals(args[i])) {
+                qrelsFile = args[++i];
+            } else if ("-evalCutoff".equals(args[i])) {
+                evalCutoff = Integer.parseInt(args[++i]);
             }
 
         }
 
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(index)));
+        if (stemCacheLoad != null) {
+            StemCache.preloadShared(Paths.get(stemCacheLoad));
+        }
+
+        if (cacheEntries > 0) {
+            resultCache = new QueryResultCache(cacheEntries, (long) (cacheMB * 1024 * 1024));
+        }
+
+        if (metricsFile != null && metricsEvery > 0) {
+            Metrics.GLOBAL.startDumping(Paths.get(metricsFile), metricsEvery);
+        }
+
+        if (queryCacheFile != null) {
+            queryCache = InfoNeedQueryCache.load(Paths.get(queryCacheFile));
+        }
+
+        if (qrelsFile != null) {
+            evaluator = RelevanceEvaluator.load(Paths.get(qrelsFile), evalCutoff);
+            if (out == null && infoNeedsFile != null) {
+                // the needs are scored as they run, their hits don't have to be written
+                out = Writer.nullWriter();
+            }
+        }
+
+        Path indexPath = Paths.get(index);
+        IndexReader reader = IndexShards.openReader(indexPath, directoryMode, preload);
+        IndexDirectory.registerGauges(indexPath);
+        if (facetLabels > 0 && !DublinCoreFacets.hasFacets(reader)) {
+            System.out.println("The index has no facets, index the documents again to count them");
+            facetLabels = 0;
+        }
         IndexSearcher searcher = new IndexSearcher(reader);
+        ExecutorService searchExecutor = null;
+        int shards = IndexShards.count(indexPath);
+        if (shards > 0) {
+            // scatter the queries to all the shards at once and merge their hits
+            searchExecutor = SlicedIndexSearcher.newExecutor(searchThreads > 0 ? searchThreads : shards);
+            searcher = new ShardedIndexSearcher(reader, searchExecutor);
+            System.out.println("Searching " + shards + " shards");
+        } else if (searchThreads > 0) {
+            // score the slices of every query on several threads
+            searchExecutor = SlicedIndexSearcher.newExecutor(searchThreads);
+            IndexSearcher sliced = SlicedIndexSearcher.create(reader, searchExecutor, sliceDocs, sliceSegments);
+            if (compareSlices && infoNeedsFile != null) {
+                new SliceComparison(searcher, sliced, repeat > 0 ? repeat : 20, maxHits)
+                        .run(readInfoNeeds(infoNeedsFile));
+                searchExecutor.shutdown();
+                reader.close();
+                return;
+            }
+            searcher = sliced;
+        }
+
+        if (warmupFile != null) {
+            // replay the usual queries so the first real ones find the index in memory
+            System.out.println(SearchWarmer.load(Paths.get(warmupFile), parser).warm(searcher));
+        }
+        if (warmupFile != null || !preload.isEmpty()) {
+            System.out.println(directoryMode.report(indexPath, preload));
+        }
+
+        if (infoNeedsFile != null && threads > 0) {
+            // build and run the queries of every information need in parallel
+            Writer batchOut = out != null ? out : new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            InfoNeedBatchRunner runner = new InfoNeedBatchRunner(searcher, threads, maxHits);
+            runner.run(readInfoNeeds(infoNeedsFile), batchOut);
+            if (out != null) {
+                out.close();
+            } else {
+                // closing it would close System.out and lose the reports below
+                batchOut.flush();
+            }
+            saveQueryCache();
+            if (evaluator != null) {
+                System.out.println(evaluator.report());
+            }
+            if (resultCache != null) {
+                System.out.println(resultCache.stats());
+            }
+            System.out.println(StemCache.QUERY.stats());
+            writeMetrics(metricsFile);
+            if (searchExecutor != null) {
+                searchExecutor.shutdown();
+            }
+            reader.close();
+            return;
+        }
+
+        if (infoNeedsFile != null) {
+            infoNeeds = searchInfoNeeds(infoNeedsFile, reader);
+            saveQueryCache();
+
+            identifiers = infoNeeds.keySet().toArray(new String[0]);
+        }
 
         BufferedReader in = null;
         if (queryFile != null) {
@@ -171,13 +353,20 @@ public class SearchFiles {
                 break;
             }
 
-            Query query = infoNeeds != null ? infoNeeds.get(identifiers[queryIndex]) : parser.parse(line);
+            Query query;
+            if (infoNeeds != null) {
+                query = infoNeeds.get(identifiers[queryIndex]);
+            } else {
+                long buildStart = System.nanoTime();
+                query = parser.parse(line);
+                QUERY_BUILD_TIME.recordSince(buildStart);
+            }
             // System.out.println("Searching for: " + query.toString(fields));
 
             if (repeat > 0) { // repeat & time as benchmark
                 Date start = new Date();
                 for (int i = 0; i < repeat; i++) {
-                    searcher.search(query, 100);
+                    searchTop(searcher, query, 100);
                 }
                 Date end = new Date();
                 System.out.println("Time: " + (end.getTime() - start.getTime()) + "ms");
@@ -186,9 +375,9 @@ public class SearchFiles {
             if (out != null) {
 
                 if (infoNeedsFile != null) {
-                    doFullSearch(in, out, searcher, query, identifiers[queryIndex]);
+                    doFullSearch(in, out, searcher, query, identifiers[queryIndex], maxHits);
                 } else {
-                    doFullSearch(in, out, searcher, query, line);
+                    doFullSearch(in, out, searcher, query, line, maxHits);
                 }
             } else {
                 doPagingSearch(in, searcher, query, hitsPerPage, raw,
@@ -200,47 +389,157 @@ public class SearchFiles {
         if (out != null) {
             out.close();
         }
+        if (evaluator != null) {
+            System.out.println(evaluator.report());
+        }
+        if (resultCache != null) {
+            System.out.println(resultCache.stats());
+        }
+        System.out.println(StemCache.QUERY.stats());
+        writeMetrics(metricsFile);
+        if (searchExecutor != null) {
+            searchExecutor.shutdown();
+        }
         reader.close();
     }
 
-    public static Query generateQueryFromInfoNeed(String text) throws IOException, org.apache.lucene.queryparser.classic.ParseException {
+    /**
+     * Write the queries built for the information needs to the query cache, if enabled
+     * @throws IOException Throws if the cache file can't be written
+     */
+    private static void saveQueryCache() throws IOException {
+        if (queryCache != null) {
+            queryCache.save();
+            System.out.println(queryCache.stats());
+        }
+    }
 
-        NameFinderME nameFinder = null;
-        try (InputStream modelIn = new FileInputStream("models/es-ner-location.bin")) {
-            TokenNameFinderModel nameFinderModel = new TokenNameFinderModel(modelIn);
-            nameFinder = new NameFinderME(nameFinderModel);
+    /**
+     * Print the latencies of every stage and dump all the metrics to a file
+     * @param metricsFile JSON or Prometheus file, see {@link Metrics#dump}, may be null
+     * @throws IOException Throws if the file can't be written
+     */
+    private static void writeMetrics(String metricsFile) throws IOException {
+        System.out.print(Metrics.GLOBAL.summary());
+        if (metricsFile != null) {
+            Metrics.GLOBAL.dump(Paths.get(metricsFile));
         }
+    }
+
+    /** Analyzer for the queries built from information needs, it's thread-safe. */
+    private static final Analyzer infoNeedAnalyzer = new SpanishAnalyzer2();
+
+    /** Pipelines are not thread-safe, so each thread of the CLI builds its own once. */
+    private static final ThreadLocal<NlpPipeline> infoNeedPipeline = new ThreadLocal<>();
+
+    /** Planners of the cached queries, which don't need the rest of a pipeline. */
+    private static final ThreadLocal<QueryPlanner> cachedQueryPlanner =
+            ThreadLocal.withInitial(() -> new QueryPlanner(infoNeedAnalyzer));
+
+    /** @return A pool of pipelines sharing the analyzer of the information needs */
+    static NlpPipelinePool newInfoNeedPipelinePool(int capacity) {
+        return new NlpPipelinePool(infoNeedAnalyzer, capacity);
+    }
 
-        try (InputStream modelIn = new FileInputStream("models/opennlp-es-pos-perceptron-pos-universal.model")) {
+    public static Query generateQueryFromInfoNeed(String text) throws IOException, org.apache.lucene.queryparser.classic.ParseException {
+        return generateQueryFromInfoNeed(text, (IndexReader) null);
+    }
+
+    /**
+     * Build the query of an information need with the NLP pipeline of the calling thread,
+     * or take it from the query cache if enabled
+     * @param text Natural language text of the need
+     * @param reader Index the query will run on, to drop the terms it doesn't have, may be null
+     * @return The query
+     * @throws IOException Throws if a model or the index can't be read
+     * @throws org.apache.lucene.queryparser.classic.ParseException Throws if a clause can't be parsed
+     */
+    static Query generateQueryFromInfoNeed(String text, IndexReader reader)
+            throws IOException, org.apache.lucene.queryparser.classic.ParseException {
+        if (queryCache != null) {
+            // cached as built without an index, so they fit any index
+            Query query = queryCache.get(text);
+            if (query == null) {
+                query = generateQueryFromInfoNeed(text, pipeline(), null);
+                queryCache.put(text, query);
+            }
+            if (reader == null) {
+                return query;
+            }
+            QueryPlanner planner = cachedQueryPlanner.get();
+            planner.begin(reader);
+            Query planned = planner.plan(query);
+            return planned != null ? planned : new MatchNoDocsQuery();
+        }
+        return generateQueryFromInfoNeed(text, pipeline(), reader);
+    }
 
-            Analyzer analyzer = new SpanishAnalyzer2();
-            QueryParser parser = new MultiFieldQueryParser(fields, analyzer);
+    /** @return The NLP pipeline of the calling thread, loading the models the first time */
+    private static NlpPipeline pipeline() throws IOException {
+        NlpPipeline pipeline = infoNeedPipeline.get();
+        if (pipeline == null) {
+            pipeline = new NlpPipeline(infoNeedAnalyzer);
+            infoNeedPipeline.set(pipeline);
+        }
+        return pipeline;
+    }
 
-            //TokenizerModel modelT = new TokenizerModel(modelIn);
-            POSModel model = new POSModel(modelIn);
+    /**
+     * Build the query of an information need
+     * @param text Natural language text of the need
+     * @param pipeline NLP objects to use, not shared with other threads meanwhile
+     * @return The query
+     * @throws IOException Throws if a model can't be read
+     * @throws org.apache.lucene.queryparser.classic.ParseException Throws if a clause can't be parsed
+     */
+    static Query generateQueryFromInfoNeed(String text, NlpPipeline pipeline)
+            throws IOException, org.apache.lucene.queryparser.classic.ParseException {
+        return generateQueryFromInfoNeed(text, pipeline, null);
+    }
 
-            POSTaggerME tagger = new POSTaggerME(model);
+    /**
+     * Build the query of an information need
+     * @param text Natural language text of the need
+     * @param pipeline NLP objects to use, not shared with other threads meanwhile
+     * @param reader Index the query will run on, to drop the terms it doesn't have, may be null
+     * @return The query
+     * @throws IOException Throws if a model or the index can't be read
+     * @throws org.apache.lucene.queryparser.classic.ParseException Throws if a clause can't be parsed
+     */
+    static Query generateQueryFromInfoNeed(String text, NlpPipeline pipeline, IndexReader reader)
+            throws IOException, org.apache.lucene.queryparser.classic.ParseException {
+
+        // The models are loaded once and shared, the tagger and name finder
+        // belong to the pipeline
+        NameFinderME nameFinder = pipeline.locationFinder;
+        POSTaggerME tagger = pipeline.tagger;
+        SnowballStemmer stemmer = pipeline.stemmer;
+        QueryParser parser = pipeline.parser;
+        QueryPlanner planner = pipeline.planner;
+        planner.begin(reader);
+        StemCache.StemFunction stemFunction = term -> stemmer.stem(term).toString().toLowerCase();
+
+        long start = System.nanoTime();
+        try {
             SimpleTokenizer tokenizer = SimpleTokenizer.INSTANCE;
 
             BooleanQuery.Builder bldr = new BooleanQuery.Builder();
             String[] tokens = tokenizer.tokenize(text);
             String[] tags = tagger.tag(tokens);
             Span[] nameSpans = nameFinder.find(tokens);
+            NLP_TAGGING_TIME.recordSince(start);
 
             for ( int i = 0; i < tags.length; i++ ) {
                 tokens[i] = tokens[i].toLowerCase();
             }
 
             for ( int i = 0; i < tags.length; i++ ) {
-                SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.SPANISH);
-                String stem = stemmer.stem(tokens[i]).toString().toLowerCase();
+                String stem = StemCache.QUERY.stem(tokens[i], stemFunction);
                 if (stem.equals("realiz")) {
                     for (Span name : nameSpans) {
                         for (int j = name.getStart(); j < name.getEnd(); j++) {
                             if (j > i) {
-                                Query cQuery = parser.parse("creator:" + tokens[j]);
-                                BoostQuery boost = new BoostQuery(cQuery, 15f);
-                                bldr.add(boost, BooleanClause.Occur.SHOULD);
+                                addClause(bldr, planner.field("creator", tokens[j]), 15f);
                             }
                         }
                     }
@@ -249,9 +548,7 @@ public class SearchFiles {
                     for ( Span name : nameSpans ) {
                         for ( int j = name.getStart(); j < name.getEnd(); j++ ) {
                             if ( j > i ) {
-                                Query cQuery = parser.parse("contributor:" + tokens[j]);
-                                BoostQuery boost = new BoostQuery(cQuery, 15f);
-                                bldr.add(boost, BooleanClause.Occur.SHOULD);
+                                addClause(bldr, planner.field("contributor", tokens[j]), 15f);
                             }
                         }
                     }
@@ -269,13 +566,17 @@ public class SearchFiles {
                             }
                         }
 
-                        TermRangeQuery dQuery = TermRangeQuery.newStringRange("date", startYear, endYear, true, true);
+                        // a point range over the indexed year, falling back to the
+                        // string range if the numbers are not years
+                        Query dQuery = DublinCoreQueryParser.newYearRange(startYear, endYear, true, true);
+                        if (dQuery == null) {
+                            dQuery = TermRangeQuery.newStringRange("date", startYear, endYear, true, true);
+                        }
                         bldr.add(dQuery, BooleanClause.Occur.SHOULD);
                     }
                     else if ( tokens[i].equals("en") ) {
                         if ( i < tokens.length - 1 ) {
-                            Query cQuery = parser.parse("language:" + tokens[i + 1].substring(0, 2));
-                            bldr.add(cQuery, BooleanClause.Occur.SHOULD);
+                            addClause(bldr, planner.field("language", tokens[i + 1].substring(0, 2)), 1f);
                         }
                         i++;
                     }
@@ -310,7 +611,7 @@ public class SearchFiles {
                         int years = Integer.parseInt(tokens[i+1]);
                         int year = 2022 - years;
 
-                        TermRangeQuery dQuery = TermRangeQuery.newStringRange("date", Integer.toString(year), "2022", true, true);
+                        Query dQuery = IntPoint.newRangeQuery(DublinCoreDates.YEAR_FIELD, year, 2022);
                         
                         bldr.add(dQuery, BooleanClause.Occur.SHOULD);
                         i +=2;
@@ -338,17 +639,9 @@ public class SearchFiles {
 
                     for (int j = i + 1; j < tokens.length ; j++){
                         if(tags[j].equals("NOUN")) {
-                            Query sQuery = parser.parse("subject:" + tokens[j]);
-                            BoostQuery bs = new BoostQuery(sQuery, 15.0f);
-                            bldr.add(bs, BooleanClause.Occur.SHOULD);
-
-                            Query tQuery = parser.parse("title:" + tokens[j]);
-                            BoostQuery bt = new BoostQuery(tQuery, 10.0f);
-                            bldr.add(bt, BooleanClause.Occur.SHOULD);
-
-                            Query dQuery = parser.parse("description:" + tokens[j]);
-                            BoostQuery bd = new BoostQuery(dQuery, 10.0f);
-                            bldr.add(bd, BooleanClause.Occur.SHOULD);
+                            addClause(bldr, planner.field("subject", tokens[j]), 15.0f);
+                            addClause(bldr, planner.field("title", tokens[j]), 10.0f);
+                            addClause(bldr, planner.field("description", tokens[j]), 10.0f);
                             i = j;
                             break;
                         }
@@ -357,32 +650,77 @@ public class SearchFiles {
                 } else if ( tags[i].equals("NOUN") ) {
 
                     if ( stem.equals("sigl") && i < tokens.length - 1 ) {
-                        Query sigQuery = parser.parse("description:" + tokens[++i]);
-                        bldr.add(sigQuery, BooleanClause.Occur.SHOULD);
+                        addClause(bldr, planner.field("description", tokens[++i]), 1f);
                     } else {
-                        Query dQuery = parser.parse("description:" + tokens[i]);
-                        bldr.add(dQuery, BooleanClause.Occur.SHOULD);
-
-                        Query sQuery = parser.parse("subject:" + tokens[i]);
-                        bldr.add(sQuery, BooleanClause.Occur.SHOULD);
-
-                        Query tQuery = parser.parse("title:" + tokens[i]);
-                        bldr.add(tQuery, BooleanClause.Occur.SHOULD);
+                        // the token is analyzed once for the three fields
+                        addClause(bldr, planner.field("description", tokens[i]), 1f);
+                        addClause(bldr, planner.field("subject", tokens[i]), 1f);
+                        addClause(bldr, planner.field("title", tokens[i]), 1f);
                     }
                 }
             }
 
-            return bldr.build();
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            // flat and without repeated clauses, so top-k searches can skip
+            return QueryShaper.shape(bldr.build());
+        } finally {
+            // the name finder keeps adaptive data between calls, forget this text
+            nameFinder.clearAdaptiveData();
+            QUERY_BUILD_TIME.recordSince(start);
+        }
+    }
+    /**
+     * Add an optional clause to the query of an information need
+     * @param bldr The query being built
+     * @param clause The clause, skipped if null
+     * @param boost Boost of the clause, 1 to leave it unboosted
+     */
+    private static void addClause(BooleanQuery.Builder bldr, Query clause, float boost) {
+        if (clause != null) {
+            bldr.add(boost != 1f ? new BoostQuery(clause, boost) : clause, BooleanClause.Occur.SHOULD);
         }
     }
+
     public static LinkedHashMap<String,Query> searchInfoNeeds(String infoNeedsFile) {
+        return searchInfoNeeds(infoNeedsFile, null);
+    }
+
+    /**
+     * Build the queries of the information needs of an XML file
+     * @param infoNeedsFile Path of the XML file
+     * @param reader Index the queries will run on, to drop the terms it doesn't have, may be null
+     * @return The query of every information need by identifier, in file order
+     */
+    static LinkedHashMap<String,Query> searchInfoNeeds(String infoNeedsFile, IndexReader reader) {
 
         LinkedHashMap<String,Query> results = new LinkedHashMap<String,Query>();
 
+        try {
+            // loop through info needs
+            for ( Map.Entry<String,String> need : readInfoNeeds(infoNeedsFile).entrySet() ) {
+                Query query = generateQueryFromInfoNeed(need.getValue(), reader);
+                
+                // transform the raw info need into a text query which can be parsed by the main program
+                results.put(need.getKey(), query);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (org.apache.lucene.queryparser.classic.ParseException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        }
+
+        return results;
+    }
+
+    /**
+     * Read the information needs of an XML file
+     * @param infoNeedsFile Path of the XML file
+     * @return The text of every information need by identifier, in file order
+     */
+    public static LinkedHashMap<String,String> readInfoNeeds(String infoNeedsFile) {
+
+        LinkedHashMap<String,String> results = new LinkedHashMap<String,String>();
+
         try {
             File xmlFile = new File(infoNeedsFile);
             DocumentBuilderFactory factoryInstance = DocumentBuilderFactory.newInstance();
@@ -402,10 +740,7 @@ public class SearchFiles {
                 String id = elem.getElementsByTagName("identifier").item(0).getTextContent();
                 String text = elem.getElementsByTagName("text").item(0).getTextContent();
 
-                Query query = generateQueryFromInfoNeed(text);
-                
-                // transform the raw info need into a text query which can be parsed by the main program
-                results.put(id, query);
+                results.put(id, text);
             }
         } catch (ParserConfigurationException e) {
             throw new RuntimeException(e);
@@ -415,9 +750,6 @@ public class SearchFiles {
             throw new RuntimeException(e);
         } catch (XPathExpressionException e) {
             throw new RuntimeException(e);
-        } catch (org.apache.lucene.queryparser.classic.ParseException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
         }
 
         return results;
@@ -432,29 +764,125 @@ public class SearchFiles {
      * @param queryIdentifier identifier of the query in the document
      * @throws IOException Throws if the file can't be read
      */
-    public static void doFullSearch(BufferedReader in, OutputStreamWriter out, IndexSearcher searcher, Query query,
+    public static void doFullSearch(BufferedReader in, Writer out, IndexSearcher searcher, Query query,
             String queryIdentifier) throws IOException {
+        doFullSearch(in, out, searcher, query, queryIdentifier, 0);
+    }
 
-        TotalHitCountCollector collector = new TotalHitCountCollector();
-        searcher.search(query, collector);
-        TopDocs results = searcher.search(query, Math.max(1, collector.getTotalHits()));
-        ScoreDoc[] hits = results.scoreDocs;
+    /**
+     * Perform a full search based on a query, without pagination. 
+     * @param in The input stream
+     * @param out The output stream
+     * @param searcher Searcher object over the index
+     * @param query the query to execute
+     * @param queryIdentifier identifier of the query in the document
+     * @param maxHits Maximum number of hits to write, 0 or less to write them all
+     * @throws IOException Throws if the file can't be read
+     */
+    public static void doFullSearch(BufferedReader in, Writer out, IndexSearcher searcher, Query query,
+            String queryIdentifier, int maxHits) throws IOException {
 
-        int numTotalHits = Math.toIntExact(results.totalHits.value);
+        int numTotalHits = fullSearch(out, searcher, query, queryIdentifier, maxHits);
         System.out.println(numTotalHits + " total matching documents");
+    }
 
-        for (int i = 0; i < numTotalHits; i++) {
-            Document doc = searcher.doc(hits[i].doc);
-            
-            String[] pathSplit = doc.get("path").split("\\\\");
-            String path = pathSplit[pathSplit.length - 1];
-            if (path != null) {
-                out.write(queryIdentifier + "\t" + path + "\n");
+    /**
+     * Write the hits of a query in score order, without printing anything. The query
+     * runs once, collecting the total count and the hits in the same pass, and the
+     * paths are read from doc values. Safe to call from several threads sharing the
+     * searcher, as long as each one has its own writer.
+     * @param out The output stream
+     * @param searcher Searcher object over the index
+     * @param query the query to execute
+     * @param queryIdentifier identifier of the query in the document
+     * @param maxHits Maximum number of hits to write, 0 or less to write them all
+     * @return The number of matching documents
+     * @throws IOException Throws if the file can't be read
+     */
+    static int fullSearch(Writer out, IndexSearcher searcher, Query query, String queryIdentifier, int maxHits)
+            throws IOException {
+
+        SEARCHES.inc();
+        QueryResultCache.Hits hits = resultCache != null
+                ? resultCache.get(searcher.getIndexReader(), query, maxHits) : null;
+        if (hits != null && hits.relation != TotalHits.Relation.EQUAL_TO) {
+            // cached by searchTop with a threshold, the count is only a lower bound
+            hits = null;
+        }
+        if (hits == null) {
+            // a collector per slice when the searcher has an executor
+            long start = System.nanoTime();
+            hits = searcher.search(query, FullResultCollector.manager(maxHits));
+            SEARCH_TIME.recordSince(start);
+            if (resultCache != null) {
+                resultCache.put(searcher.getIndexReader(), query, maxHits, hits);
+            }
+        }
+
+        int numHits = hits.size;
+        long fetchStart = System.nanoTime();
+        String[] paths = HitPaths.resolve(searcher.getIndexReader(), hits.docs, 0, numHits);
+        FETCH_TIME.recordSince(fetchStart);
+        if (evaluator != null) {
+            evaluator.score(queryIdentifier, paths, numHits);
+        }
+
+        for (int i = 0; i < numHits; i++) {
+            if (paths[i] != null) {
+                String[] pathSplit = paths[i].split("\\\\");
+                out.write(queryIdentifier + "\t" + pathSplit[pathSplit.length - 1] + "\n");
             } else {
                 out.write(queryIdentifier + "\tNo path for this document\n");
             }
             //System.out.println(searcher.explain(query, hits[i].doc));
         }
+        return Math.toIntExact(hits.totalHits);
+    }
+
+    /**
+     * Search the top hits of a query, going through the result cache if enabled.
+     * Hits are counted up to {@link #totalHitsThreshold} only.
+     * @param searcher Searcher object over the index
+     * @param query the query to execute
+     * @param n number of hits to collect
+     * @return The top hits
+     * @throws IOException Throws if the index can't be read
+     */
+    static TopDocs searchTop(IndexSearcher searcher, Query query, int n) throws IOException {
+        return searchTop(searcher, query, n, totalHitsThreshold);
+    }
+
+    /**
+     * Search the top hits of a query, going through the result cache if enabled
+     * @param searcher Searcher object over the index
+     * @param query the query to execute
+     * @param n number of hits to collect
+     * @param threshold Hits to count exactly, past it the count is a lower bound
+     *                  and documents that can't make it to the top are skipped
+     * @return The top hits
+     * @throws IOException Throws if the index can't be read
+     */
+    static TopDocs searchTop(IndexSearcher searcher, Query query, int n, int threshold) throws IOException {
+        SEARCHES.inc();
+        QueryResultCache.Hits hits = resultCache != null ? resultCache.get(searcher.getIndexReader(), query, n) : null;
+        if (hits != null && hits.relation != TotalHits.Relation.EQUAL_TO && hits.totalHits < threshold) {
+            // cached with a lower threshold, the count is not good enough
+            hits = null;
+        }
+        if (hits == null) {
+            long start = System.nanoTime();
+            // shared between the slices, so they all skip from the best k so far;
+            // no more hits than documents, like IndexSearcher.search(Query, int)
+            int numHits = Math.max(1, Math.min(n, searcher.getIndexReader().maxDoc()));
+            TopDocs topDocs = searcher.search(query,
+                    TopScoreDocCollector.createSharedManager(numHits, null, threshold));
+            SEARCH_TIME.recordSince(start);
+            if (resultCache != null) {
+                resultCache.put(searcher.getIndexReader(), query, n, QueryResultCache.Hits.of(topDocs));
+            }
+            return topDocs;
+        }
+        return hits.toTopDocs();
     }
 
     /**
@@ -474,40 +902,72 @@ public class SearchFiles {
     public static void doPagingSearch(BufferedReader in, IndexSearcher searcher, Query query,
             int hitsPerPage, boolean raw, boolean interactive) throws IOException {
 
-        // Collect enough docs to show 5 pages
-        TopDocs results = searcher.search(query, 5 * hitsPerPage);
+        // Collect enough docs to show 5 pages, counting the hits only up to the
+        // threshold so the rest of the documents can be skipped. Facets count
+        // every hit, in the same pass as the top ones.
+        TopDocs results;
+        DublinCoreFacets.Result faceted = null;
+        if (facetLabels > 0) {
+            SEARCHES.inc();
+            long searchStart = System.nanoTime();
+            faceted = DublinCoreFacets.search(searcher, query, 5 * hitsPerPage, facetLabels);
+            SEARCH_TIME.recordSince(searchStart);
+            results = faceted.topDocs;
+        } else {
+            results = searchTop(searcher, query, 5 * hitsPerPage);
+        }
         ScoreDoc[] hits = results.scoreDocs;
 
         int numTotalHits = Math.toIntExact(results.totalHits.value);
-        System.out.println(numTotalHits + " total matching documents");
+        boolean exactCount = results.totalHits.relation == TotalHits.Relation.EQUAL_TO;
+        if (exactCount) {
+            System.out.println(numTotalHits + " total matching documents");
+        } else {
+            System.out.println("At least " + numTotalHits + " matching documents");
+        }
+        if (faceted != null) {
+            System.out.print(DublinCoreFacets.format(faceted.facets));
+        }
 
         int start = 0;
         int end = Math.min(numTotalHits, hitsPerPage);
 
         while (true) {
             if (end > hits.length) {
-                System.out.println("Only results 1 - " + hits.length + " of " + numTotalHits
-                        + " total matching documents collected.");
+                System.out.println("Only results 1 - " + hits.length + " of " + (exactCount ? "" : "at least ")
+                        + numTotalHits + " total matching documents collected.");
                 System.out.println("Collect more (y/n) ?");
                 String line = in.readLine();
                 if (line.length() == 0 || line.charAt(0) == 'n') {
                     break;
                 }
 
-                hits = searcher.search(query, numTotalHits).scoreDocs;
+                if (!exactCount) {
+                    numTotalHits = searcher.count(query);
+                    exactCount = true;
+                    System.out.println(numTotalHits + " total matching documents");
+                }
+                hits = searchTop(searcher, query, numTotalHits, Integer.MAX_VALUE).scoreDocs;
             }
 
             end = Math.min(hits.length, start + hitsPerPage);
 
+            // read the paths of the whole page at once from doc values
+            long fetchStart = System.nanoTime();
+            String[] pagePaths = raw ? null : HitPaths.resolve(searcher.getIndexReader(), hits, start, end);
+            FETCH_TIME.recordSince(fetchStart);
+
             for (int i = start; i < end; i++) {
                 if (raw) { // output raw format
                     System.out.println("doc=" + hits[i].doc + " score=" + hits[i].score);
                     continue;
                 }
 
-                Document doc = searcher.doc(hits[i].doc);
-                String[] pathSplit = doc.get("path").split("\\\\");
-                String path = pathSplit[pathSplit.length - 1];
+                String path = null;
+                if (pagePaths[i - start] != null) {
+                    String[] pathSplit = pagePaths[i - start].split("\\\\");
+                    path = pathSplit[pathSplit.length - 1];
+                }
                 if (path != null) {
                     System.out.println((i + 1) + ". " + path);
                     // System.out.println(" modified: " + new
@@ -0,0 +1,616 @@
+package org.apache.lucene.demo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident search service over HTTP.
+ * <p>
+ * The index is opened once and shared by all the requests through a
+ * {@link SearcherManager}, which a background thread refreshes so the commits
+ * of a running {@code IndexFiles -commitEvery} become visible without
+ * restarting; a sharded index (see {@link IndexShards}) is refreshed shard
+ * by shard and searched on all of them at once. With {@code -warmup} every searcher replays a query log before
+ * it is used, the first one before the server starts listening, see
+ * {@link SearchWarmer}. Endpoints, all answering JSON:
+ * <ul>
+ * <li>{@code /search?q=text[&n=10]}: plain text, special characters escaped;
+ * {@code n=0} gives the number of hits only</li>
+ * <li>{@code /lucene?q=query[&n=10]}: raw Lucene query syntax</li>
+ * <li>{@code /infoneed?q=text[&n=10]}: natural language information need</li>
+ * <li>any of the above with {@code &facets=10}: also the counts of the hits by
+ * type, subject, publisher and year, top 10 values of each (at most
+ * {@link DublinCoreFacets#MAX_LABELS})</li>
+ * <li>{@code /stats}: latency percentiles of the last requests</li>
+ * <li>{@code /metrics}: stage latencies and counters, Prometheus text format</li>
+ * </ul>
+ * Requests run on virtual threads when the JVM has them and {@code -virtual}
+ * is given, otherwise on a fixed pool. Either way the number of requests in
+ * flight and of NLP pipelines is bounded: once saturated the server answers
+ * 503 with a {@code Retry-After} header instead of queueing without limit.
+ */
+public class SearchServer {
+
+    private static final int LATENCY_WINDOW = 4096;
+
+    /** Set while the accepting thread answers a request the pool had no room for. */
+    private static final ThreadLocal<Boolean> SATURATED = ThreadLocal.withInitial(() -> false);
+
+    private final ReferenceManager<IndexSearcher> manager;
+    private final Analyzer analyzer = new SpanishAnalyzer2();
+    private final NlpPipelinePool nlpPool;
+    private final long nlpWaitMs;
+    private final Semaphore inFlight;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long requests;
+    private long errors;
+    private long rejected;
+
+    /**
+     * @param manager     Source of the searchers, refreshed by the caller
+     * @param nlpPool     Pipelines for the information needs
+     * @param nlpWaitMs   How long an information need waits for a pipeline
+     * @param maxInFlight Maximum number of requests handled at the same time
+     */
+    SearchServer(ReferenceManager<IndexSearcher> manager, NlpPipelinePool nlpPool, long nlpWaitMs, int maxInFlight) {
+        this.manager = manager;
+        this.nlpPool = nlpPool;
+        this.nlpWaitMs = nlpWaitMs;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /** Starts the server and blocks until the process is stopped. */
+    public static void main(String[] args) throws Exception {
+        String usage = "java org.apache.lucene.demo.SearchServer"
+                + " [-index INDEX_PATH] [-port PORT] [-threads N] [-virtual] [-maxInFlight N] [-nlpPool N] [-nlpWaitMs MS]"
+                + " [-refreshMs MS] [-cache entries] [-cacheMB mb] [-searchThreads n] [-sliceDocs n] [-sliceSegments n]"
+                + " [-stemCacheLoad file] [-metrics file] [-metricsEvery seconds] [-totalHitsThreshold n]"
+                + " [-directory auto|mmap|nio] [-preload ext,...|all] [-warmup file]\n\n"
+                + "This serves queries over the index in INDEX_PATH on http://localhost:PORT/";
+        if (args.length > 0 && ("-h".equals(args[0]) || "-help".equals(args[0]))) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        String index = "index";
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        int maxInFlight = 1024;
+        int nlpPool = Runtime.getRuntime().availableProcessors();
+        long nlpWaitMs = 100;
+        long refreshMs = 1000;
+        int cacheEntries = 0;
+        double cacheMB = 64;
+        int searchThreads = 0;
+        int sliceDocs = SlicedIndexSearcher.MAX_DOCS_PER_SLICE;
+        int sliceSegments = SlicedIndexSearcher.MAX_SEGMENTS_PER_SLICE;
+        String stemCacheLoad = null;
+        String metricsFile = null;
+        long metricsEvery = 60;
+        IndexDirectory directoryMode = IndexDirectory.AUTO;
+        Set<String> preload = IndexDirectory.noPreload();
+        String warmupFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-index".equals(args[i])) {
+                index = args[++i];
+            } else if ("-port".equals(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-virtual".equals(args[i])) {
+                virtual = true;
+            } else if ("-maxInFlight".equals(args[i])) {
+                maxInFlight = Integer.parseInt(args[++i]);
+            } else if ("-nlpPool".equals(args[i])) {
+                nlpPool = Integer.parseInt(args[++i]);
+            } else if ("-nlpWaitMs".equals(args[i])) {
+                nlpWaitMs = Long.parseLong(args[++i]);
+            } else if ("-refreshMs".equals(args[i])) {
+                refreshMs = Long.parseLong(args[++i]);
+            } else if ("-cache".equals(args[i])) {
+                cacheEntries = Integer.parseInt(args[++i]);
+            } else if ("-cacheMB".equals(args[i])) {
+                cacheMB = Double.parseDouble(args[++i]);
+            } else if ("-searchThreads".equals(args[i])) {
+                searchThreads = Integer.parseInt(args[++i]);
+            } else if ("-sliceDocs".equals(args[i])) {
+                sliceDocs = Integer.parseInt(args[++i]);
+            } else if ("-sliceSegments".equals(args[i])) {
+                sliceSegments = Integer.parseInt(args[++i]);
+            } else if ("-stemCacheLoad".equals(args[i])) {
+                stemCacheLoad = args[++i];
+            } else if ("-metrics".equals(args[i])) {
+                metricsFile = args[++i];
+            } else if ("-metricsEvery".equals(args[i])) {
+                metricsEvery = Long.parseLong(args[++i]);
+            } else if ("-totalHitsThreshold".equals(args[i])) {
+                // past it the count is a lower bound and the search can skip
+                SearchFiles.totalHitsThreshold = Integer.parseInt(args[++i]);
+            } else if ("-directory".equals(args[i])) {
+                directoryMode = IndexDirectory.forName(args[++i]);
+            } else if ("-preload".equals(args[i])) {
+                preload = IndexDirectory.extensions(args[++i]);
+            } else if ("-warmup".equals(args[i])) {
+                warmupFile = args[++i];
+            }
+        }
+
+        if (stemCacheLoad != null) {
+            StemCache.preloadShared(Paths.get(stemCacheLoad));
+        }
+
+        // also served on /metrics, the file is for collectors that read files
+        ScheduledExecutorService metricsDumper = metricsFile != null
+                ? Metrics.GLOBAL.startDumping(Paths.get(metricsFile), metricsEvery) : null;
+
+        if (cacheEntries > 0) {
+            // entries are keyed by reader, so a refresh drops them
+            SearchFiles.resultCache = new QueryResultCache(cacheEntries, (long) (cacheMB * 1024 * 1024));
+        }
+
+        // every refreshed searcher scores its slices on the same threads,
+        // and the queries on a sharded index run on all the shards at once
+        Path indexPath = Paths.get(index);
+        int shards = IndexShards.count(indexPath);
+        if (shards > 0 && searchThreads <= 0) {
+            searchThreads = shards;
+        }
+        ExecutorService searchExecutor = searchThreads > 0 ? SlicedIndexSearcher.newExecutor(searchThreads) : null;
+        int maxDocs = sliceDocs;
+        int maxSegments = sliceSegments;
+        SearchWarmer warmer = null;
+        if (warmupFile != null) {
+            warmer = SearchWarmer.load(Paths.get(warmupFile),
+                    new DublinCoreQueryParser(SearchFiles.fields, new SpanishAnalyzer2()));
+        }
+        SearchWarmer searchWarmer = warmer;
+        SearcherFactory factory = new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                IndexSearcher searcher;
+                if (shards > 0) {
+                    searcher = new ShardedIndexSearcher(reader, searchExecutor);
+                } else if (searchExecutor != null) {
+                    searcher = SlicedIndexSearcher.create(reader, searchExecutor, maxDocs, maxSegments);
+                } else {
+                    searcher = new IndexSearcher(reader);
+                }
+                if (searchWarmer != null) {
+                    // the first searcher before the server starts listening, the
+                    // refreshed ones before they replace the current one
+                    System.out.println(searchWarmer.warm(searcher));
+                }
+                return searcher;
+            }
+        };
+        IndexDirectory.registerGauges(indexPath);
+        ReferenceManager<IndexSearcher> manager = shards > 0
+                ? new ShardedSearcherManager((ShardedReader) IndexShards.openReader(indexPath, directoryMode, preload),
+                        factory)
+                : new SearcherManager(directoryMode.open(indexPath, preload), factory);
+        System.out.println(directoryMode.report(indexPath, preload));
+        SearchServer server = new SearchServer(manager, SearchFiles.newInfoNeedPipelinePool(nlpPool), nlpWaitMs,
+                maxInFlight);
+
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "searcher-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                if (manager.maybeRefresh()) {
+                    // only reports when a new commit was picked up
+                    System.out.println("Refreshed searcher");
+                }
+            } catch (IOException e) {
+                System.err.println("Can't refresh the searcher: " + e.getMessage());
+            }
+        }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+
+        ExecutorService pool = virtual ? newVirtualThreadExecutor() : null;
+        String execution = "virtual threads";
+        if (pool == null) {
+            if (virtual) {
+                System.out.println("Virtual threads need Java 21 or later, using " + threads + " threads");
+            }
+            pool = newFixedExecutor(threads, maxInFlight);
+            execution = Math.min(threads, maxInFlight) + " threads";
+        }
+        ExecutorService executor = pool;
+        HttpServer http = server.listen(port, executor);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            http.stop(0);
+            executor.shutdown();
+            refresher.shutdownNow();
+            if (metricsDumper != null) {
+                metricsDumper.shutdownNow();
+            }
+            try {
+                manager.close();
+            } catch (IOException e) {
+                System.err.println("Can't close the searcher: " + e.getMessage());
+            }
+            System.out.println(server.stats());
+            System.out.println(server.nlpPool.stats());
+        }));
+
+        // load the NLP models now instead of on the first information need
+        NlpModels.posModel();
+        NlpModels.locationModel();
+
+        http.start();
+        System.out.println("Serving '" + index + "' on http://localhost:" + port + "/ with " + execution);
+    }
+
+    /**
+     * Creates the server of the endpoints, not started yet.
+     *
+     * @param port     Port to listen on, 0 for any free one
+     * @param executor Runs the requests, e.g. {@link #newFixedExecutor(int, int)}
+     * @return The server
+     * @throws IOException If the port can't be bound
+     */
+    HttpServer listen(int port, ExecutorService executor) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        http.createContext("/search", exchange -> handle(exchange, Mode.PLAIN));
+        http.createContext("/lucene", exchange -> handle(exchange, Mode.RAW));
+        http.createContext("/infoneed", exchange -> handle(exchange, Mode.INFO_NEED));
+        http.createContext("/stats", this::handleStats);
+        http.createContext("/metrics", this::handleMetrics);
+        http.setExecutor(executor);
+        return http;
+    }
+
+    /**
+     * A fixed pool whose workers and queue hold at most {@code maxInFlight}
+     * requests. The permits of {@link #handle} are only taken by the workers,
+     * so they can't bound the queue: a request that doesn't fit is answered
+     * 503 right away on the accepting thread instead.
+     *
+     * @param threads     Number of workers
+     * @param maxInFlight Maximum number of requests running or queued
+     * @return The executor
+     */
+    static ExecutorService newFixedExecutor(int threads, int maxInFlight) {
+        int workers = Math.min(threads, maxInFlight);
+        BlockingQueue<Runnable> queue = maxInFlight > workers
+                ? new ArrayBlockingQueue<>(maxInFlight - workers) : new SynchronousQueue<>();
+        return new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, queue, (request, pool) -> {
+            SATURATED.set(true);
+            try {
+                request.run();
+            } finally {
+                SATURATED.set(false);
+            }
+        });
+    }
+
+    /**
+     * @return An executor starting a virtual thread per task, or null if the
+     *         JVM has no virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** How the text of a request is turned into a query. */
+    enum Mode {
+        PLAIN, RAW, INFO_NEED
+    }
+
+    /**
+     * Parses the text of a request into a query.
+     *
+     * @param text   Text of the request
+     * @param mode   How to read the text
+     * @param reader Index the query will run on, to drop the information need
+     *               terms it doesn't have
+     * @return The query, or null if no NLP pipeline was free in time
+     * @throws ParseException       If the text is not a valid query
+     * @throws IOException          If the NLP models can't be loaded
+     * @throws InterruptedException If interrupted while waiting for a pipeline
+     */
+    Query parse(String text, Mode mode, IndexReader reader) throws ParseException, IOException, InterruptedException {
+        if (mode != Mode.INFO_NEED) {
+            // parsers are cheap and not thread-safe, so one per request
+            long start = System.nanoTime();
+            QueryParser parser = new DublinCoreQueryParser(SearchFiles.fields, analyzer);
+            Query query = parser.parse(mode == Mode.PLAIN ? QueryParser.escape(text) : text);
+            SearchFiles.QUERY_BUILD_TIME.recordSince(start);
+            return query;
+        }
+        NlpPipeline pipeline = nlpPool.acquire(nlpWaitMs, TimeUnit.MILLISECONDS);
+        if (pipeline == null) {
+            return null;
+        }
+        try {
+            return SearchFiles.generateQueryFromInfoNeed(text, pipeline, reader);
+        } finally {
+            nlpPool.release(pipeline);
+        }
+    }
+
+    private void handle(HttpExchange exchange, Mode mode) throws IOException {
+        long start = System.nanoTime();
+        if (SATURATED.get() || !inFlight.tryAcquire()) {
+            reject(exchange, "too many requests in flight");
+            return;
+        }
+        try {
+            Map<String, String> params = params(exchange);
+            String text = params.get("q");
+            if (text == null || text.trim().isEmpty()) {
+                send(exchange, 400, "{\"error\":\"missing q\"}");
+                return;
+            }
+            int n = intParam(params, "n", 10);
+            if (n < 0) {
+                send(exchange, 400, "{\"error\":\"n must be a number >= 0\"}");
+                return;
+            }
+            int facetLabels = intParam(params, "facets", 0);
+            if (facetLabels < 0) {
+                send(exchange, 400, "{\"error\":\"facets must be a number >= 0\"}");
+                return;
+            }
+            facetLabels = Math.min(facetLabels, DublinCoreFacets.MAX_LABELS);
+
+            StringBuilder body = new StringBuilder();
+            IndexSearcher searcher = manager.acquire();
+            try {
+                Query query;
+                try {
+                    query = parse(text, mode, searcher.getIndexReader());
+                } catch (ParseException e) {
+                    send(exchange, 400, "{\"error\":" + json(e.getMessage()) + "}");
+                    return;
+                }
+                if (query == null) {
+                    reject(exchange, "all NLP pipelines are busy");
+                    return;
+                }
+
+                TopDocs top;
+                List<FacetResult> facets = null;
+                if (facetLabels > 0 && !DublinCoreFacets.hasFacets(searcher.getIndexReader())) {
+                    send(exchange, 400, "{\"error\":\"the index has no facets\"}");
+                    return;
+                }
+                if (facetLabels > 0) {
+                    // counted in the same pass as the top hits
+                    long searchStart = System.nanoTime();
+                    DublinCoreFacets.Result result = DublinCoreFacets.search(searcher, query, n, facetLabels);
+                    SearchFiles.SEARCH_TIME.recordSince(searchStart);
+                    top = result.topDocs;
+                    facets = result.facets;
+                } else if (n == 0) {
+                    // the count only, no hit is scored
+                    long searchStart = System.nanoTime();
+                    top = new TopDocs(new TotalHits(searcher.count(query), TotalHits.Relation.EQUAL_TO),
+                            new ScoreDoc[0]);
+                    SearchFiles.SEARCH_TIME.recordSince(searchStart);
+                } else {
+                    top = SearchFiles.searchTop(searcher, query, n);
+                }
+                long fetchStart = System.nanoTime();
+                String[] paths = HitPaths.resolve(searcher.getIndexReader(), top.scoreDocs, 0, top.scoreDocs.length);
+                SearchFiles.FETCH_TIME.recordSince(fetchStart);
+                body.append("{\"query\":").append(json(query.toString()))
+                        .append(",\"totalHits\":").append(top.totalHits.value)
+                        .append(",\"totalHitsExact\":")
+                        .append(top.totalHits.relation == TotalHits.Relation.EQUAL_TO)
+                        .append(",\"hits\":[");
+                for (int i = 0; i < paths.length; i++) {
+                    if (i > 0) {
+                        body.append(',');
+                    }
+                    body.append("{\"path\":").append(json(paths[i]))
+                            .append(",\"score\":").append(top.scoreDocs[i].score).append('}');
+                }
+                body.append(']');
+                if (facets != null) {
+                    appendFacets(body, facets);
+                }
+            } finally {
+                manager.release(searcher);
+            }
+            body.append(",\"tookMs\":").append(String.format("%.3f", (System.nanoTime() - start) / 1e6)).append('}');
+            send(exchange, 200, body.toString());
+        } catch (RuntimeException | IOException e) {
+            synchronized (this) {
+                errors++;
+            }
+            send(exchange, 500, "{\"error\":" + json(String.valueOf(e.getMessage())) + "}");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "{\"error\":\"interrupted\"}");
+        } finally {
+            inFlight.release();
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param params       Parameters of a request
+     * @param name         Name of a parameter
+     * @param defaultValue Value if the parameter is missing
+     * @return The value of the parameter, or -1 if it's not a number >= 0
+     */
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(-1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Appends the facet counts as {@code ,"facets":{"type":[{"label":"TESIS","count":3},...],...}}. */
+    private static void appendFacets(StringBuilder body, List<FacetResult> facets) {
+        body.append(",\"facets\":{");
+        for (int i = 0; i < facets.size(); i++) {
+            FacetResult facet = facets.get(i);
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append(json(facet.dim)).append(":[");
+            for (int j = 0; j < facet.labelValues.length; j++) {
+                if (j > 0) {
+                    body.append(',');
+                }
+                body.append("{\"label\":").append(json(facet.labelValues[j].label))
+                        .append(",\"count\":").append(facet.labelValues[j].value).append('}');
+            }
+            body.append(']');
+        }
+        body.append('}');
+    }
+
+    private void reject(HttpExchange exchange, String reason) throws IOException {
+        synchronized (this) {
+            rejected++;
+        }
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 503, "{\"error\":" + json(reason) + "}");
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        send(exchange, 200, "{\"stats\":" + json(stats()) + ",\"nlp\":" + json(nlpPool.stats())
+                + ",\"stems\":[" + json(StemCache.ANALYSIS.stats()) + "," + json(StemCache.QUERY.stats()) + "]}");
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        StringWriter text = new StringWriter();
+        Metrics.GLOBAL.writePrometheus(text);
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private synchronized void record(long nanos) {
+        latencies[(int) (requests++ % LATENCY_WINDOW)] = nanos;
+    }
+
+    /** @return One line with the number of requests and latency percentiles of the last ones */
+    synchronized String stats() {
+        int size = (int) Math.min(requests, LATENCY_WINDOW);
+        if (size == 0) {
+            return rejected + " rejected, 0 requests";
+        }
+        long[] sorted = Arrays.copyOf(latencies, size);
+        Arrays.sort(sorted);
+        return String.format("%d requests, %d errors, %d rejected, last %d: p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                requests, errors, rejected, size, percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+                sorted[size - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
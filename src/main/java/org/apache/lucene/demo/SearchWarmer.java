@@ -0,0 +1,95 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a query log against a new searcher before it answers any request,
+ * e.g. the queries of {@code consultas.txt}.
+ * <p>
+ * Right after a start the index files are not in the page cache yet, and the
+ * first queries pay for reading them from disk. Running the usual queries
+ * first, and reading the paths of their top hits like a search does, loads
+ * the terms, postings, norms and stored fields those queries need, so the
+ * real ones don't see that latency. It complements preloading (see
+ * {@link IndexDirectory}), which loads whole files whether they are used or
+ * not.
+ * <p>
+ * The warmup bypasses the result cache and the search metrics, so neither is
+ * filled with queries nobody asked.
+ */
+final class SearchWarmer {
+
+    private static final int TOP_HITS = 10;
+
+    private final List<Query> queries;
+    private final int skipped;
+
+    private SearchWarmer(List<Query> queries, int skipped) {
+        this.queries = queries;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Reads a query log, one query per line in Lucene syntax. Lines that don't
+     * parse are skipped.
+     *
+     * @param file   The log
+     * @param parser Parser of the queries, the one used for the real searches
+     * @return The warmer, reusable for every new searcher
+     * @throws IOException If the log can't be read
+     */
+    static SearchWarmer load(Path file, QueryParser parser) throws IOException {
+        List<Query> queries = new ArrayList<>();
+        int skipped = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                queries.add(parser.parse(line));
+            } catch (ParseException e) {
+                skipped++;
+            }
+        }
+        return new SearchWarmer(queries, skipped);
+    }
+
+    /**
+     * Runs every query of the log and reads the paths of its top hits.
+     *
+     * @param searcher The searcher to warm
+     * @return A line reporting how long it took
+     * @throws IOException If the index can't be read
+     */
+    String warm(IndexSearcher searcher) throws IOException {
+        long start = System.nanoTime();
+        long slowest = 0;
+        int numHits = Math.max(1, Math.min(TOP_HITS, searcher.getIndexReader().maxDoc()));
+        for (Query query : queries) {
+            long queryStart = System.nanoTime();
+            TopDocs hits = searcher.search(query,
+                    TopScoreDocCollector.createSharedManager(numHits, null, SearchFiles.totalHitsThreshold));
+            HitPaths.resolve(searcher.getIndexReader(), hits.scoreDocs, 0, hits.scoreDocs.length);
+            slowest = Math.max(slowest, System.nanoTime() - queryStart);
+        }
+        String report = String.format("Warmed up with %d queries in %.1f ms (slowest %.1f ms)",
+                queries.size(), (System.nanoTime() - start) / 1e6, slowest / 1e6);
+        if (skipped > 0) {
+            report += ", " + skipped + " lines of the log don't parse";
+        }
+        return report;
+    }
+}
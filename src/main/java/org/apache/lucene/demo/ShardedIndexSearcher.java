@@ -0,0 +1,65 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Scatter-gather searcher over the shards of an index (see
+ * {@link IndexShards}).
+ * <p>
+ * The reader is a {@code MultiReader} over the shards and every shard is a
+ * slice, so a query runs on all the shards at once on the executor. Each
+ * shard collects its own top hits, and the collector manager merges them with
+ * {@link TopDocs#merge(int, TopDocs[])}; with the shared top-k managers of
+ * {@link SearchFiles#searchTop(IndexSearcher, org.apache.lucene.search.Query, int, int)}
+ * the shards also skip the documents that can't beat the best hits found so
+ * far by any of them. The term and collection statistics come from the
+ * {@code MultiReader}, i.e. from all the shards together, so a document gets
+ * the same score it would get in an unsharded index.
+ */
+final class ShardedIndexSearcher extends IndexSearcher {
+
+    /**
+     * @param reader   The shards, read as one
+     * @param executor Runs the shards of a query
+     */
+    ShardedIndexSearcher(IndexReader reader, ExecutorService executor) {
+        super(reader, executor);
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        return slicesByShard(leaves);
+    }
+
+    /**
+     * @param leaves Segments of the index
+     * @return The segments grouped by shard, a single slice if the index is
+     *         not sharded
+     */
+    static LeafSlice[] slicesByShard(List<LeafReaderContext> leaves) {
+        // the segments of a shard are the leaves of the reader of that shard
+        Map<IndexReaderContext, List<LeafReaderContext>> shards = new LinkedHashMap<>();
+        for (LeafReaderContext leaf : leaves) {
+            IndexReaderContext shard = leaf.parent;
+            while (shard != null && shard.parent != null && !shard.parent.isTopLevel) {
+                shard = shard.parent;
+            }
+            shards.computeIfAbsent(shard, s -> new ArrayList<>()).add(leaf);
+        }
+        List<LeafSlice> slices = new ArrayList<>(shards.size());
+        for (List<LeafReaderContext> shard : shards.values()) {
+            slices.add(new LeafSlice(shard.toArray(new LeafReaderContext[0])));
+        }
+        return slices.toArray(new LeafSlice[0]);
+    }
+}
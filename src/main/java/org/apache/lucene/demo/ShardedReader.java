@@ -0,0 +1,74 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The shards of an index read as one (see {@link IndexShards}).
+ * <p>
+ * A {@link MultiReader} over several readers has no cache helper, so the data
+ * cached per reader, the facet ordinals and the term statistics, would be
+ * computed again for every query. Those caches use {@link #cacheKey(IndexReader)}
+ * instead: the key of the cache helper when the reader has one, this reader
+ * itself otherwise. The entries are dropped when the reader is closed, i.e.
+ * once a refresh replaced it and its last search is done, see
+ * {@link #whenClosed(IndexReader, Object, Consumer)}.
+ */
+final class ShardedReader extends MultiReader {
+
+    private final List<Runnable> closedListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param shards Readers of the shards, which get a reference from this
+     *               reader and are released when it is closed
+     * @throws IOException If the shards can't be read
+     */
+    ShardedReader(IndexReader[] shards) throws IOException {
+        super(shards, false);
+    }
+
+    @Override
+    protected synchronized void doClose() throws IOException {
+        try {
+            super.doClose();
+        } finally {
+            for (Runnable listener : closedListeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * @param reader A reader
+     * @return The key to cache data computed from the reader, or null if it
+     *         can't be cached
+     */
+    static Object cacheKey(IndexReader reader) {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper != null) {
+            return helper.getKey();
+        }
+        return reader instanceof ShardedReader ? reader : null;
+    }
+
+    /**
+     * Calls a listener once a reader is closed.
+     *
+     * @param reader   A reader with a {@link #cacheKey(IndexReader)}
+     * @param key      Its key
+     * @param listener Called with the key, e.g. to remove it from a cache
+     */
+    static void whenClosed(IndexReader reader, Object key, Consumer<Object> listener) {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper != null) {
+            helper.addClosedListener(closed -> listener.accept(key));
+        } else {
+            ((ShardedReader) reader).closedListeners.add(() -> listener.accept(key));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Like {@link SearcherManager}, for the shards of an index (see
+ * {@link IndexShards}): the searchers read a {@link ShardedReader} over the
+ * shards, and a refresh reopens the shards that have new commits, keeping
+ * the readers of the others.
+ */
+final class ShardedSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final SearcherFactory factory;
+
+    /**
+     * @param reader  The shards, as opened by
+     *                {@link IndexShards#openReader(java.nio.file.Path, IndexDirectory, java.util.Set)},
+     *                owned by the manager from now on
+     * @param factory Creates the searchers, e.g. to warm them up
+     * @throws IOException If the first searcher can't be created
+     */
+    ShardedSearcherManager(ShardedReader reader, SearcherFactory factory) throws IOException {
+        this.factory = factory;
+        this.current = SearcherManager.getSearcher(factory, reader, null);
+    }
+
+    @Override
+    protected void decRef(IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+        IndexReader old = referenceToRefresh.getIndexReader();
+        List<IndexReaderContext> shards = old.getContext().children();
+        DirectoryReader[] readers = new DirectoryReader[shards.size()];
+        DirectoryReader[] opened = new DirectoryReader[shards.size()];
+        boolean changed = false;
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                DirectoryReader shard = (DirectoryReader) shards.get(i).reader();
+                opened[i] = DirectoryReader.openIfChanged(shard);
+                readers[i] = opened[i] != null ? opened[i] : shard;
+                changed |= opened[i] != null;
+            }
+            if (!changed) {
+                return null;
+            }
+            // the new reader takes a reference to every shard, shared or not
+            ShardedReader reader = new ShardedReader(readers);
+            return SearcherManager.getSearcher(factory, reader, old);
+        } finally {
+            // and the reopened ones are only kept by it
+            for (DirectoryReader shard : opened) {
+                if (shard != null) {
+                    shard.decRef();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+}
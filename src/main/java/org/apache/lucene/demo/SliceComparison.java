@@ -0,0 +1,85 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Compares the latency of the information need queries on a single-threaded
+ * searcher and on a {@link SlicedIndexSearcher} over the same reader.
+ * <p>
+ * Every query is first run once on both to warm up and to check that the
+ * hits are the same, then {@code repeat} times on each, alternating.
+ */
+final class SliceComparison {
+
+    private final IndexSearcher single;
+    private final IndexSearcher sliced;
+    private final int repeat;
+    private final int maxHits;
+
+    /**
+     * @param single  Searcher without executor
+     * @param sliced  Searcher with executor, on the same reader
+     * @param repeat  Number of timed runs of every query on each searcher
+     * @param maxHits Maximum number of hits collected, 0 or less for all
+     */
+    SliceComparison(IndexSearcher single, IndexSearcher sliced, int repeat, int maxHits) {
+        this.single = single;
+        this.sliced = sliced;
+        this.repeat = Math.max(1, repeat);
+        this.maxHits = maxHits;
+    }
+
+    /**
+     * Runs the comparison, printing a line per need and a summary.
+     *
+     * @param needs Text of the information needs by identifier
+     * @throws IOException If a query can't be built or the index can't be read
+     */
+    void run(Map<String, String> needs) throws IOException {
+        System.out.println(String.format("%d slices over %d segments, %d runs per query",
+                sliced.getSlices().length, single.getIndexReader().leaves().size(), repeat));
+        long singleTotal = 0;
+        long slicedTotal = 0;
+        for (Map.Entry<String, String> need : needs.entrySet()) {
+            Query query;
+            try {
+                query = SearchFiles.generateQueryFromInfoNeed(need.getValue());
+            } catch (org.apache.lucene.queryparser.classic.ParseException e) {
+                throw new IOException("Can't build the query for information need " + need.getKey(), e);
+            }
+
+            QueryResultCache.Hits expected = single.search(query, FullResultCollector.manager(maxHits));
+            QueryResultCache.Hits actual = sliced.search(query, FullResultCollector.manager(maxHits));
+            boolean same = expected.totalHits == actual.totalHits && expected.size == actual.size;
+            for (int i = 0; same && i < expected.size; i++) {
+                same = expected.docs[i] == actual.docs[i];
+            }
+
+            long singleNanos = 0;
+            long slicedNanos = 0;
+            for (int i = 0; i < repeat; i++) {
+                long t0 = System.nanoTime();
+                single.search(query, FullResultCollector.manager(maxHits));
+                long t1 = System.nanoTime();
+                sliced.search(query, FullResultCollector.manager(maxHits));
+                long t2 = System.nanoTime();
+                singleNanos += t1 - t0;
+                slicedNanos += t2 - t1;
+            }
+            singleTotal += singleNanos;
+            slicedTotal += slicedNanos;
+            System.out.println(String.format("%s: %d hits, single %.2f ms, sliced %.2f ms, speedup %.2fx%s",
+                    need.getKey(), expected.totalHits, singleNanos / 1e6 / repeat, slicedNanos / 1e6 / repeat,
+                    (double) singleNanos / Math.max(1, slicedNanos), same ? "" : " (DIFFERENT HITS)"));
+        }
+        if (!needs.isEmpty()) {
+            System.out.println(String.format("Mean per query: single %.2f ms, sliced %.2f ms, speedup %.2fx",
+                    singleTotal / 1e6 / repeat / needs.size(), slicedTotal / 1e6 / repeat / needs.size(),
+                    (double) singleTotal / Math.max(1, slicedTotal)));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searcher scoring groups of segments ("slices") of one query concurrently.
+ * <p>
+ * Lucene's default makes a slice per segment, which gives many tiny tasks on
+ * an index with a lot of small segments. Here segments are grouped, largest
+ * first, until a slice holds {@code maxDocsPerSlice} documents or
+ * {@code maxSegmentsPerSlice} segments; a segment larger than the limit is a
+ * slice on its own.
+ */
+final class SlicedIndexSearcher extends IndexSearcher {
+
+    /** Default maximum number of documents per slice. */
+    static final int MAX_DOCS_PER_SLICE = 250_000;
+
+    /** Default maximum number of segments per slice. */
+    static final int MAX_SEGMENTS_PER_SLICE = 5;
+
+    // slices() is called from the IndexSearcher constructor, before the fields
+    // of this class are set, so the limits are handed over through the thread
+    private static final ThreadLocal<int[]> LIMITS = new ThreadLocal<>();
+
+    private SlicedIndexSearcher(IndexReader reader, ExecutorService executor) {
+        super(reader, executor);
+    }
+
+    /**
+     * @param reader              The index to search
+     * @param executor            Runs the slices of a query
+     * @param maxDocsPerSlice     Maximum number of documents per slice
+     * @param maxSegmentsPerSlice Maximum number of segments per slice
+     * @return A searcher running the slices of every query on the executor
+     */
+    static SlicedIndexSearcher create(IndexReader reader, ExecutorService executor, int maxDocsPerSlice,
+            int maxSegmentsPerSlice) {
+        if (maxDocsPerSlice <= 0 || maxSegmentsPerSlice <= 0) {
+            throw new IllegalArgumentException("slice limits must be > 0");
+        }
+        LIMITS.set(new int[] { maxDocsPerSlice, maxSegmentsPerSlice });
+        try {
+            return new SlicedIndexSearcher(reader, executor);
+        } finally {
+            LIMITS.remove();
+        }
+    }
+
+    /**
+     * @param threads Number of threads
+     * @return A pool of daemon threads to run the slices
+     */
+    static ExecutorService newExecutor(int threads) {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "search-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        int[] limits = LIMITS.get();
+        return slices(leaves, limits[0], limits[1]);
+    }
+
+    /**
+     * @param leaves              Segments of the index
+     * @param maxDocsPerSlice     Maximum number of documents per slice
+     * @param maxSegmentsPerSlice Maximum number of segments per slice
+     * @return The segments grouped in slices
+     */
+    static LeafSlice[] slices(List<LeafReaderContext> leaves, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+        List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+        sorted.sort(Comparator.comparingInt((LeafReaderContext l) -> l.reader().maxDoc()).reversed());
+
+        List<LeafSlice> slices = new ArrayList<>();
+        List<LeafReaderContext> group = new ArrayList<>();
+        long docs = 0;
+        for (LeafReaderContext leaf : sorted) {
+            int maxDoc = leaf.reader().maxDoc();
+            if (maxDoc > maxDocsPerSlice) {
+                slices.add(new LeafSlice(leaf));
+                continue;
+            }
+            group.add(leaf);
+            docs += maxDoc;
+            if (docs > maxDocsPerSlice || group.size() >= maxSegmentsPerSlice) {
+                slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+                group.clear();
+                docs = 0;
+            }
+        }
+        if (!group.isEmpty()) {
+            slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+        }
+        return slices.toArray(new LeafSlice[0]);
+    }
+}
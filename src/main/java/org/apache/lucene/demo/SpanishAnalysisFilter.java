@@ -0,0 +1,124 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.tartarus.snowball.ext.SpanishStemmer;
+
+import java.io.IOException;
+
+/**
+ * Lowercases, removes stop words and stems Spanish tokens in a single filter.
+ * <p>
+ * Produces the same tokens, positions and keyword flags as
+ * {@code LowerCaseFilter -> StopFilter -> [SetKeywordMarkerFilter] ->
+ * SnowballFilter("Spanish")}, but works on the term buffer in place with one
+ * attribute lookup per token instead of one per filter, and uses the Snowball
+ * stemmer directly instead of loading it by name. Stems are looked up in the
+ * shared {@link StemCache#ANALYSIS} first, so only unseen words are stemmed.
+ * <p>
+ * The time from {@link #reset()} to {@link #end()} of every stream is recorded
+ * as {@code analysis_seconds}. It includes the work of the consumer on each
+ * token, e.g. inverting it when indexing, which can't be told apart from the
+ * analysis without timing every single token.
+ */
+final class SpanishAnalysisFilter extends TokenFilter {
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+
+    private final CharArraySet stopwords;
+    private final CharArraySet stemExclusionSet;
+    private final SpanishStemmer stemmer = new SpanishStemmer();
+    private final StemCache stemCache = StemCache.ANALYSIS;
+    private static final Metrics.Timer ANALYSIS_TIME = Metrics.GLOBAL.timer("analysis_seconds",
+            "Time to analyze and consume the tokens of a field");
+    private long resetNanos;
+    private char[] original = new char[16];
+
+    private int skippedPositions;
+
+    /**
+     * @param input            Tokens to filter
+     * @param stopwords        Lowercase words to remove
+     * @param stemExclusionSet Words marked as keywords and not stemmed, may be empty
+     */
+    SpanishAnalysisFilter(TokenStream input, CharArraySet stopwords, CharArraySet stemExclusionSet) {
+        super(input);
+        this.stopwords = stopwords;
+        this.stemExclusionSet = stemExclusionSet;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        skippedPositions = 0;
+        while (input.incrementToken()) {
+            char[] buffer = termAtt.buffer();
+            int length = termAtt.length();
+            CharacterUtils.toLowerCase(buffer, 0, length);
+
+            if (stopwords.contains(buffer, 0, length)) {
+                // like FilteringTokenFilter, the next token keeps the gap
+                skippedPositions += posIncAtt.getPositionIncrement();
+                continue;
+            }
+            if (skippedPositions != 0) {
+                posIncAtt.setPositionIncrement(posIncAtt.getPositionIncrement() + skippedPositions);
+            }
+
+            if (!stemExclusionSet.isEmpty() && stemExclusionSet.contains(buffer, 0, length)) {
+                keywordAtt.setKeyword(true);
+            }
+            if (!keywordAtt.isKeyword()) {
+                stem(buffer, length);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void stem(char[] buffer, int length) {
+        StemCache.Entry cached = stemCache.get(buffer, 0, length);
+        if (cached != null) {
+            termAtt.copyBuffer(cached.stem, 0, cached.stem.length);
+            return;
+        }
+
+        // the stemmer works in place, keep the term to cache it
+        if (original.length < length) {
+            original = ArrayUtil.grow(original, length);
+        }
+        System.arraycopy(buffer, 0, original, 0, length);
+
+        stemmer.setCurrent(buffer, length);
+        stemmer.stem();
+        char[] stemmed = stemmer.getCurrentBuffer();
+        int stemmedLength = stemmer.getCurrentBufferLength();
+        stemCache.put(original, length, stemmed, stemmedLength);
+        if (stemmed != buffer) {
+            termAtt.copyBuffer(stemmed, 0, stemmedLength);
+        } else {
+            termAtt.setLength(stemmedLength);
+        }
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        skippedPositions = 0;
+        resetNanos = System.nanoTime();
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        posIncAtt.setPositionIncrement(posIncAtt.getPositionIncrement() + skippedPositions);
+        ANALYSIS_TIME.recordSince(resetNanos);
+    }
+}
@@ -96,18 +96,16 @@ public final class SpanishAnalyzer2 extends StopwordAnalyzerBase {
      * @return A
      *         {@link org.apache.lucene.analysis.Analyzer.TokenStreamComponents}
      *         built from an {@link StandardTokenizer} filtered with
-     *         {@link LowerCaseFilter}, {@link StopFilter}
-     *         , {@link SetKeywordMarkerFilter} if a stem exclusion set is
-     *         provided and {@link SpanishLightStemFilter}.
+     *         {@link SpanishAnalysisFilter}, which lowercases, removes stop
+     *         words, skips the stem exclusion set and applies the Spanish
+     *         Snowball stemmer in one pass, the same as {@link LowerCaseFilter},
+     *         {@link StopFilter}, {@link SetKeywordMarkerFilter} and
+     *         {@link SnowballFilter} would.
      */
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
         final Tokenizer source = new StandardTokenizer();
-        TokenStream result = new LowerCaseFilter(source);
-        result = new StopFilter(result, stopwords);
-        if(!stemExclusionSet.isEmpty())
-            result = new SetKeywordMarkerFilter(result, stemExclusionSet);
-        result = new SnowballFilter(result, "Spanish");
+        TokenStream result = new SpanishAnalysisFilter(source, stopwords, stemExclusionSet);
         return new TokenStreamComponents(source, result);
     }
 
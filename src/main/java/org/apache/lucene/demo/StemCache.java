@@ -0,0 +1,295 @@
+package org.apache.lucene.demo;
+
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import org.tartarus.snowball.ext.SpanishStemmer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free cache from a lowercase term to its stem.
+ * <p>
+ * The table has a fixed number of slots and every term may live in one of a
+ * few slots after its hash. Lookups take a {@code char[]} slice, so the
+ * analyzer can look up its term buffer without building a {@link String}.
+ * When all the slots of a term are taken, the entry used the least is
+ * replaced, so the table keeps the frequent words. Entries are immutable and
+ * published with a single atomic write, so readers never see half an entry;
+ * two threads may stem the same word at once, which only costs the work.
+ * <p>
+ * There is one shared cache per stemmer, since the Lucene and OpenNLP
+ * Snowball implementations are not guaranteed to agree.
+ */
+final class StemCache {
+
+    /** Stems of the Lucene Snowball stemmer, used by {@link SpanishAnalysisFilter}. */
+    static final StemCache ANALYSIS = new StemCache("analysis", 1 << 16);
+
+    /** Stems of the OpenNLP Snowball stemmer, used to build the queries of information needs. */
+    static final StemCache QUERY = new StemCache("query", 1 << 12);
+
+    private static final int PROBES = 4;
+
+    /** Computes the stem of a term on a miss. */
+    interface StemFunction {
+        String stem(String term);
+    }
+
+    private final String name;
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param name     Name shown in the statistics
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    StemCache(String name, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0, got " + capacity);
+        }
+        int slots = Integer.highestOneBit(Math.max(PROBES, capacity - 1) << 1);
+        this.name = name;
+        this.table = new AtomicReferenceArray<>(slots);
+        this.mask = slots - 1;
+    }
+
+    /**
+     * @param term   Buffer holding the term
+     * @param offset Start of the term in the buffer
+     * @param length Length of the term
+     * @return The cached entry, or null on a miss
+     */
+    Entry get(char[] term, int offset, int length) {
+        int hash = hash(term, offset, length);
+        for (int i = 0; i < PROBES; i++) {
+            Entry e = table.get((hash + i) & mask);
+            if (e != null && e.hash == hash && e.matches(term, offset, length)) {
+                e.count++;
+                hits.increment();
+                return e;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param term    Term, copied
+     * @param length  Length of the term
+     * @param stem    Stem of the term, copied
+     * @param stemLen Length of the stem
+     */
+    void put(char[] term, int length, char[] stem, int stemLen) {
+        char[] t = new char[length];
+        System.arraycopy(term, 0, t, 0, length);
+        char[] s = new char[stemLen];
+        System.arraycopy(stem, 0, s, 0, stemLen);
+        put(new Entry(t, s, hash(t, 0, length)));
+    }
+
+    /**
+     * @param term Lowercase term
+     * @param fn   Computes the stem on a miss
+     * @return The stem of the term
+     */
+    String stem(String term, StemFunction fn) {
+        char[] chars = term.toCharArray();
+        Entry e = get(chars, 0, chars.length);
+        if (e != null) {
+            return e.stemString();
+        }
+        String stem = fn.stem(term);
+        Entry created = new Entry(chars, stem.toCharArray(), hash(chars, 0, chars.length));
+        put(created);
+        return stem;
+    }
+
+    private void put(Entry entry) {
+        if (putIfFree(entry)) {
+            return;
+        }
+        int victim = -1;
+        int victimCount = Integer.MAX_VALUE;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (entry.hash + i) & mask;
+            Entry e = table.get(slot);
+            if (e.count < victimCount) {
+                victim = slot;
+                victimCount = e.count;
+            }
+        }
+        table.set(victim, entry);
+        evictions.increment();
+    }
+
+    /**
+     * Caches an entry in a free slot of its term, evicting nothing.
+     *
+     * @param entry The entry
+     * @return True if the entry or another of its term is cached, false if all
+     *         the slots of the term are taken
+     */
+    private boolean putIfFree(Entry entry) {
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (entry.hash + i) & mask;
+            Entry e = table.get(slot);
+            if (e == null) {
+                if (table.compareAndSet(slot, null, entry)) {
+                    size.incrementAndGet();
+                    return true;
+                }
+                e = table.get(slot);
+            }
+            if (e.hash == entry.hash && e.matches(entry.term, 0, entry.term.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return The number of cached terms */
+    int size() {
+        return size.get();
+    }
+
+    /** @return One line with the entries, hit rate and evictions */
+    String stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        return String.format("Stem cache (%s): %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                name, size(), table.length(), h, m, h + m > 0 ? 100.0 * h / (h + m) : 0.0, evictions.sum());
+    }
+
+    /**
+     * Writes the cached terms by decreasing number of uses, one "term\tcount"
+     * per line, to be given to {@link #preload} by a later run.
+     *
+     * @param file Destination file
+     * @throws IOException If the file can't be written
+     */
+    void dump(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>(size());
+        for (int i = 0; i < table.length(); i++) {
+            Entry e = table.get(i);
+            if (e != null) {
+                entries.add(e);
+            }
+        }
+        entries.sort((a, b) -> Integer.compare(b.count, a.count));
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Entry e : entries) {
+                out.write(e.term);
+                out.write('\t');
+                out.write(Integer.toString(e.count));
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Stems and caches the terms of a frequency list written by {@link #dump},
+     * most frequent first, until the cache is full. The preloaded entries have
+     * not been used yet, so a term whose slots are all taken is skipped rather
+     * than evicting a more frequent one loaded before it.
+     *
+     * @param file The frequency list
+     * @param fn   Stemmer of this cache
+     * @return The number of terms loaded
+     * @throws IOException If the file can't be read
+     */
+    int preload(Path file, StemFunction fn) throws IOException {
+        int loaded = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while (size() < table.length() && (line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                String term = tab < 0 ? line : line.substring(0, tab);
+                if (term.isEmpty()) {
+                    continue;
+                }
+                char[] chars = term.toCharArray();
+                if (putIfFree(new Entry(chars, fn.stem(term).toCharArray(), hash(chars, 0, chars.length)))) {
+                    loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Preloads both shared caches from the same frequency list.
+     *
+     * @param file The frequency list
+     * @throws IOException If the file can't be read
+     */
+    static void preloadShared(Path file) throws IOException {
+        SpanishStemmer snowball = new SpanishStemmer();
+        int analysis = ANALYSIS.preload(file, term -> {
+            snowball.setCurrent(term);
+            snowball.stem();
+            return snowball.getCurrent();
+        });
+        SnowballStemmer opennlp = new SnowballStemmer(SnowballStemmer.ALGORITHM.SPANISH);
+        int query = QUERY.preload(file, term -> opennlp.stem(term).toString().toLowerCase());
+        System.out.println("Preloaded " + analysis + " analysis and " + query + " query stems from " + file);
+    }
+
+    private static int hash(char[] term, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + term[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** A term and its stem. */
+    static final class Entry {
+        final char[] term;
+        final char[] stem;
+        final int hash;
+        // number of uses, racy increments only make it approximate
+        int count;
+        private String stemString;
+
+        Entry(char[] term, char[] stem, int hash) {
+            this.term = term;
+            this.stem = stem;
+            this.hash = hash;
+        }
+
+        boolean matches(char[] other, int offset, int length) {
+            if (length != term.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (term[i] != other[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String stemString() {
+            String s = stemString;
+            if (s == null) {
+                s = new String(stem);
+                stemString = s;
+            }
+            return s;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.apache.lucene.demo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * JSON records with values {@link BulkRecordReader} doesn't index are read
+ * without them, and only malformed lines are skipped.
+ */
+class BulkRecordReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void nestedValuesAreSkipped() throws IOException {
+        File file = Files.write(dir.resolve("records.jsonl"), Arrays.asList(
+                "{\"title\": \"Fauna\", \"extra\": {\"ids\": [{\"doi\": \"10.1/x\"}, [1, 2]], \"ok\": true},"
+                        + " \"subject\": [\"biología\", {\"lang\": \"es\"}, \"zoología\"], \"date\": \"2004\"}",
+                "{\"title\": \"Economía\", \"extra\": {\"unclosed\": [1, 2}}",
+                "{\"title\": \"Robótica\", \"empty\": {}, \"none\": [[], {}]}"),
+                StandardCharsets.UTF_8).toFile();
+
+        List<String> titles = new ArrayList<>();
+        List<String[]> subjects = new ArrayList<>();
+        int records = BulkRecordReader.read(file, new DublinCoreParser(), (doc, index) -> {
+            titles.add(doc.get("title"));
+            subjects.add(doc.getValues("subject"));
+        });
+
+        assertEquals(2, records);
+        assertEquals(Arrays.asList("Fauna", "Robótica"), titles);
+        assertArrayEquals(new String[] { "biología", "zoología" }, subjects.get(0));
+        assertArrayEquals(new String[0], subjects.get(1));
+    }
+}
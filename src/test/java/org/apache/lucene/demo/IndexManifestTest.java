@@ -0,0 +1,127 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Incremental runs with {@link IndexManifest} only rewrite the files whose
+ * content changed.
+ */
+class IndexManifestTest {
+
+    @TempDir
+    Path docs;
+
+    @Test
+    void touchedFileIsNotReindexed() throws IOException {
+        File a = write("a.xml", "fauna economía");
+        write("b.xml", "robótica caciquismo");
+        String key = IndexManifest.MODIFIED_PREFIX + a.getPath();
+        long created = a.lastModified();
+
+        try (Directory dir = new ByteBuffersDirectory()) {
+            run(dir);
+            assertIndex(dir, 2, 0);
+
+            // same content, new time: the records are kept and the time remembered
+            long touched = a.lastModified() + 10_000;
+            assertTrue(a.setLastModified(touched));
+            run(dir);
+            assertIndex(dir, 2, 0);
+            assertEquals(created, storedModified(dir, a));
+            assertEquals(Long.toString(touched), userData(dir, key));
+
+            // the remembered time is used: the file is not even hashed, so an
+            // edit that kept the time goes unnoticed
+            write("a.xml", "parkinson contracción");
+            assertTrue(a.setLastModified(touched));
+            run(dir);
+            assertIndex(dir, 2, 0);
+
+            // a real change is reindexed and its records store the new time
+            assertTrue(a.setLastModified(touched + 10_000));
+            run(dir);
+            assertEquals(touched + 10_000, storedModified(dir, a));
+            assertEquals(null, userData(dir, key));
+        }
+    }
+
+    @Test
+    void siblingFolderIsNotDeleted() throws IOException {
+        Files.createDirectories(docs.resolve("docs"));
+        Files.createDirectories(docs.resolve("docs2"));
+        write("docs/a.xml", "fauna economía");
+        write("docs2/b.xml", "robótica caciquismo");
+
+        try (Directory dir = new ByteBuffersDirectory()) {
+            run(dir, docs.resolve("docs2").toFile());
+            run(dir, docs.resolve("docs").toFile());
+            assertIndex(dir, 2, 0);
+        }
+    }
+
+    private void run(Directory dir) throws IOException {
+        run(dir, docs.toFile());
+    }
+
+    private static void run(Directory dir, File root) throws IOException {
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new SpanishAnalyzer2()))) {
+            IndexManifest manifest = IndexManifest.load(dir);
+            IndexFiles.indexDocs(writer, root, manifest);
+            manifest.deleteMissing(writer, root);
+            manifest.save(writer);
+        }
+    }
+
+    private static void assertIndex(Directory dir, int maxDoc, int deleted) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(maxDoc, reader.maxDoc(), "documents written");
+            assertEquals(deleted, reader.numDeletedDocs(), "documents deleted");
+        }
+    }
+
+    private static long storedModified(Directory dir, File file) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TopDocs top = searcher.search(new TermQuery(new Term("file", file.getPath())), 10);
+            assertEquals(1, top.scoreDocs.length, "records of " + file);
+            return searcher.doc(top.scoreDocs[0].doc).getField("modified").numericValue().longValue();
+        }
+    }
+
+    private static String userData(Directory dir, String key) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            return reader.getIndexCommit().getUserData().get(key);
+        }
+    }
+
+    private File write(String name, String title) throws IOException {
+        Path file = docs.resolve(name);
+        Files.write(file, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n"
+                + "<dc:title>" + title + "</dc:title><dc:date>2004</dc:date><dc:type>TAZ-TFG</dc:type>\n"
+                + "</oai_dc:dc>\n").getBytes(StandardCharsets.UTF_8));
+        assertFalse(Files.isDirectory(file));
+        return file.toFile();
+    }
+}
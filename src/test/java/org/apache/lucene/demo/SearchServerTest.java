@@ -0,0 +1,108 @@
+package org.apache.lucene.demo;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A saturated {@link SearchServer} turns requests away instead of queueing them.
+ */
+class SearchServerTest {
+
+    @Test
+    void saturatedServerAnswers503() throws Exception {
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SearcherFactory blocking = new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return new IndexSearcher(reader) {
+                    @Override
+                    public <C extends Collector, T> T search(Query query, CollectorManager<C, T> manager)
+                            throws IOException {
+                        searching.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return super.search(query, manager);
+                    }
+                };
+            }
+        };
+
+        try (Directory dir = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new SpanishAnalyzer2()))) {
+                Document doc = new Document();
+                doc.add(new StringField("path", "a.xml", Field.Store.YES));
+                doc.add(new TextField("title", "fauna", Field.Store.YES));
+                writer.addDocument(doc);
+            }
+            SearcherManager manager = new SearcherManager(dir, blocking);
+            SearchServer server = new SearchServer(manager, SearchFiles.newInfoNeedPipelinePool(1), 0, 2);
+            // one request running and one queued fill the server
+            ExecutorService executor = SearchServer.newFixedExecutor(1, 2);
+            HttpServer http = server.listen(0, executor);
+            http.start();
+            try {
+                String url = "http://localhost:" + http.getAddress().getPort() + "/lucene?q=title:fauna";
+                CompletableFuture<Integer> running = CompletableFuture.supplyAsync(() -> status(url));
+                assertTrue(searching.await(10, TimeUnit.SECONDS), "first request searching");
+                CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(() -> status(url));
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (((ThreadPoolExecutor) executor).getQueue().isEmpty() && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+
+                HttpURLConnection rejected = (HttpURLConnection) new URL(url).openConnection();
+                assertEquals(503, rejected.getResponseCode());
+                assertEquals("1", rejected.getHeaderField("Retry-After"));
+
+                release.countDown();
+                assertEquals(200, running.get(10, TimeUnit.SECONDS));
+                assertEquals(200, queued.get(10, TimeUnit.SECONDS));
+            } finally {
+                release.countDown();
+                http.stop(0);
+                executor.shutdown();
+                manager.close();
+            }
+        }
+    }
+
+    private static int status(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.apache.lucene.demo;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.StopwordAnalyzerBase;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.SetKeywordMarkerFilter;
+import org.apache.lucene.analysis.snowball.SnowballFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link SpanishAnalyzer2} must give the same terms, positions, offsets and
+ * keyword flags as the filter chain {@link SpanishAnalysisFilter} replaced.
+ */
+class SpanishAnalyzer2Test {
+
+    private static final String[] TEXTS = {
+            "Análisis de la Evolución Urbana de Zaragoza entre 1950 y 2000",
+            // stop words first and last, the gap at the end shows in end()
+            "De la canción y los Árboles de la",
+            "el ÑANDÚ corría por las llanuras, pero no de noche",
+            "Canciones populares: canciones, CANCIONES y cancioneros",
+            "",
+            "de la y",
+    };
+
+    private static final CharArraySet EXCLUSIONS = new CharArraySet(Arrays.asList("canciones", "árboles"), false);
+
+    @Test
+    void sameTokensAsTheChain() throws IOException {
+        try (Analyzer fused = new SpanishAnalyzer2();
+                Analyzer chain = new ChainAnalyzer(SpanishAnalyzer2.getDefaultStopSet(), CharArraySet.EMPTY_SET)) {
+            assertSameTokens(chain, fused);
+        }
+    }
+
+    @Test
+    void sameTokensWithStemExclusions() throws IOException {
+        CharArraySet stopwords = SpanishAnalyzer2.getDefaultStopSet();
+        try (Analyzer fused = new SpanishAnalyzer2(stopwords, EXCLUSIONS);
+                Analyzer chain = new ChainAnalyzer(stopwords, EXCLUSIONS)) {
+            assertSameTokens(chain, fused);
+        }
+    }
+
+    @Test
+    void sameTokensWithOtherStopWords() throws IOException {
+        CharArraySet stopwords = new CharArraySet(Arrays.asList("y", "canciones", "noche"), false);
+        try (Analyzer fused = new SpanishAnalyzer2(stopwords, EXCLUSIONS);
+                Analyzer chain = new ChainAnalyzer(stopwords, EXCLUSIONS)) {
+            assertSameTokens(chain, fused);
+        }
+    }
+
+    private static void assertSameTokens(Analyzer expected, Analyzer actual) throws IOException {
+        // twice, so the reused streams are checked too
+        for (int round = 0; round < 2; round++) {
+            for (String text : TEXTS) {
+                assertEquals(tokens(expected, text), tokens(actual, text), text);
+            }
+        }
+    }
+
+    private static List<String> tokens(Analyzer analyzer, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream("description", text)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+            OffsetAttribute offset = ts.addAttribute(OffsetAttribute.class);
+            KeywordAttribute keyword = ts.addAttribute(KeywordAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(term + "/" + posInc.getPositionIncrement() + "/" + offset.startOffset() + "-"
+                        + offset.endOffset() + (keyword.isKeyword() ? "/keyword" : ""));
+            }
+            ts.end();
+            tokens.add("end/" + posInc.getPositionIncrement() + "/" + offset.endOffset());
+        }
+        return tokens;
+    }
+
+    /** The filter chain of {@link SpanishAnalyzer2} before {@link SpanishAnalysisFilter}. */
+    private static final class ChainAnalyzer extends StopwordAnalyzerBase {
+        private final CharArraySet stemExclusionSet;
+
+        ChainAnalyzer(CharArraySet stopwords, CharArraySet stemExclusionSet) {
+            super(stopwords);
+            this.stemExclusionSet = stemExclusionSet;
+        }
+
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer source = new StandardTokenizer();
+            TokenStream result = new LowerCaseFilter(source);
+            result = new StopFilter(result, stopwords);
+            if (!stemExclusionSet.isEmpty()) {
+                result = new SetKeywordMarkerFilter(result, stemExclusionSet);
+            }
+            result = new SnowballFilter(result, "Spanish");
+            return new TokenStreamComponents(source, result);
+        }
+    }
+}
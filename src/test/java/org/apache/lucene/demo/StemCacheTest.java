@@ -0,0 +1,58 @@
+package org.apache.lucene.demo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Preloading more terms than {@link StemCache} holds keeps the most frequent ones.
+ */
+class StemCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void overfullPreloadKeepsTheFirstTerms() throws IOException {
+        // "Aa" and "BB" have the same String hash, so all these terms compete
+        // for the same few slots
+        List<String> terms = new ArrayList<>();
+        for (int bits = 0; bits < 32; bits++) {
+            StringBuilder term = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                term.append((bits >> i & 1) == 0 ? "Aa" : "BB");
+            }
+            terms.add(term.toString());
+        }
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            lines.add(terms.get(i) + "\t" + (terms.size() - i));
+        }
+        Path file = Files.write(dir.resolve("stems.tsv"), lines, StandardCharsets.UTF_8);
+
+        StemCache cache = new StemCache("test", 64);
+        int loaded = cache.preload(file, term -> term.toLowerCase());
+        assertEquals(4, loaded);
+        assertEquals(4, cache.size());
+        for (int i = 0; i < terms.size(); i++) {
+            char[] term = terms.get(i).toCharArray();
+            StemCache.Entry entry = cache.get(term, 0, term.length);
+            if (i < loaded) {
+                assertNotNull(entry, terms.get(i));
+                assertEquals(terms.get(i).toLowerCase(), entry.stemString());
+            } else {
+                assertNull(entry, terms.get(i));
+            }
+        }
+    }
+}